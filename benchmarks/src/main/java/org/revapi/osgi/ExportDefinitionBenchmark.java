@@ -0,0 +1,87 @@
+package org.revapi.osgi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The decision whether a class is exported by a definition with the given number of include and exclude filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ExportDefinitionBenchmark {
+    private static final int CLASS_COUNT = 1024;
+
+    @Param({"0", "1", "10", "100"})
+    public int includeCount;
+
+    @Param({"0", "1", "10", "100"})
+    public int excludeCount;
+
+    private ExportPackageDefinition definition;
+    private String[] classNames;
+
+    @Setup
+    public void setup() {
+        List<String> includes = new ArrayList<>(includeCount);
+        for (int i = 0; i < includeCount; ++i) {
+            switch (i % 3) {
+                case 0:
+                    includes.add("Api" + i + "*");
+                    break;
+                case 1:
+                    includes.add("*Service" + i);
+                    break;
+                default:
+                    includes.add("Public" + i);
+            }
+        }
+
+        List<String> excludes = new ArrayList<>(excludeCount);
+        for (int i = 0; i < excludeCount; ++i) {
+            excludes.add(i % 2 == 0 ? "*Impl" + i : "*Internal" + i + "*");
+        }
+
+        definition = new ExportPackageDefinition(new ArrayList<>(), includes, excludes);
+
+        Random random = new Random(42);
+        String[] prefixes = {"Api", "Public", "Default", "Abstract", ""};
+        String[] suffixes = {"Impl", "Service", "Internal", "Factory", ""};
+        classNames = new String[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            int n = random.nextInt(Math.max(1, Math.max(includeCount, excludeCount)));
+            classNames[i] = prefixes[random.nextInt(prefixes.length)] + n + "Type"
+                    + suffixes[random.nextInt(suffixes.length)] + n;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASS_COUNT)
+    public int exportsClass() {
+        int ret = 0;
+        for (String className : classNames) {
+            if (definition.exportsClass(className)) {
+                ++ret;
+            }
+        }
+        return ret;
+    }
+}
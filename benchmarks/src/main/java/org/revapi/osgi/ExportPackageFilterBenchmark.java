@@ -0,0 +1,121 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.revapi.API;
+import org.revapi.AnalysisContext;
+import org.revapi.Element;
+import org.revapi.ElementForest;
+import org.revapi.java.JavaApiAnalyzer;
+import org.revapi.simple.FileArchive;
+
+/**
+ * The filter decisions over all the elements of a compiled synthetic bundle with varying share of the exported packages
+ * and with or without the class filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportPackageFilterBenchmark {
+    private static final int ELEMENT_COUNT = 8192;
+
+    @Param({"10", "200"})
+    public int packageCount;
+
+    /**
+     * Every n-th package is exported, n being the reciprocal of the share.
+     */
+    @Param({"0.1", "0.5", "1.0"})
+    public double exportedShare;
+
+    @Param({"false", "true"})
+    public boolean classFilters;
+
+    private Path dir;
+    private JavaApiAnalyzer analyzer;
+    private ExportPackageFilter filter;
+    private Element[] elements;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("revapi-osgi-bench");
+
+        SyntheticBundle bundle = new SyntheticBundle().packages(packageCount).classesPerPackage(20)
+                .exportEvery((int) Math.round(1 / exportedShare)).withMembers();
+        if (classFilters) {
+            bundle.excludes("*Impl");
+        }
+
+        FileArchive archive = new FileArchive(bundle.build(dir));
+
+        API api = API.of(singletonList(archive)).build();
+        AnalysisContext ctx = AnalysisContext.builder().withOldAPI(api).withNewAPI(api).build()
+                .copyWithConfiguration(ModelNode.fromJSONString("{}"));
+
+        analyzer = new JavaApiAnalyzer(emptySet());
+        analyzer.initialize(ctx);
+        ElementForest forest = analyzer.getArchiveAnalyzer(api).analyze();
+
+        filter = new ExportPackageFilter();
+        filter.initialize(ctx);
+
+        // cycle through the elements of the forest so that all the parameter combinations do the same amount of work
+        List<Element> all = new ArrayList<>();
+        Deque<Element> todo = new ArrayDeque<>(forest.getRoots());
+        while (!todo.isEmpty()) {
+            Element e = todo.pop();
+            all.add(e);
+            todo.addAll(e.getChildren());
+        }
+
+        elements = new Element[ELEMENT_COUNT];
+        for (int i = 0; i < ELEMENT_COUNT; ++i) {
+            elements[i] = all.get(i % all.size());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        filter.close();
+        analyzer.close();
+        SyntheticBundle.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENT_COUNT)
+    public int applies() {
+        int ret = 0;
+        for (Element e : elements) {
+            if (filter.applies(e)) {
+                ++ret;
+            }
+        }
+        return ret;
+    }
+}
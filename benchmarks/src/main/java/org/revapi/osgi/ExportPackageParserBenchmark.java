@@ -0,0 +1,72 @@
+package org.revapi.osgi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the Export-Package headers of varying size and complexity, from the manifest bytes to the definitions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ExportPackageParserBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int packageCount;
+
+    @Param({"SIMPLE", "ATTRIBUTES", "FILTERED"})
+    public HeaderStyle style;
+
+    private byte[] manifest;
+
+    @Setup
+    public void setup() throws IOException {
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        mf.getMainAttributes().putValue("Export-Package", style.header(packageCount));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mf.write(out);
+        manifest = out.toByteArray();
+    }
+
+    @Benchmark
+    public Set<ExportPackageDefinition> byteParser() {
+        Set<ExportPackageDefinition> ret = new HashSet<>();
+        ExportPackageByteParser.parse(manifest, ret);
+        return ret;
+    }
+
+    /**
+     * The original way of decoding the manifest using the JDK and parsing the header string.
+     */
+    @Benchmark
+    public Set<ExportPackageDefinition> jdkManifestAndStringParser() throws IOException {
+        Set<ExportPackageDefinition> ret = new HashSet<>();
+        String header = new Manifest(new ByteArrayInputStream(manifest)).getMainAttributes()
+                .getValue("Export-Package");
+        ExportPackageEntryParser.parse(header, ret);
+        return ret;
+    }
+}
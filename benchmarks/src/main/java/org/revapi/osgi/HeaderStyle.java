@@ -0,0 +1,63 @@
+package org.revapi.osgi;
+
+/**
+ * The shapes of the synthetic Export-Package headers used by the benchmarks.
+ */
+public enum HeaderStyle {
+    /**
+     * Just the package names, e.g. {@code a.b,c.d}.
+     */
+    SIMPLE {
+        @Override
+        void appendExport(StringBuilder header, String packageName, int index) {
+            header.append(packageName);
+        }
+    },
+
+    /**
+     * What tools like bnd generate: each package with a version attribute and a uses directive.
+     */
+    ATTRIBUTES {
+        @Override
+        void appendExport(StringBuilder header, String packageName, int index) {
+            header.append(packageName).append(";version=\"1.").append(index % 10).append(".0\";uses:=\"");
+            for (int i = 1; i <= 5; ++i) {
+                if (i > 1) {
+                    header.append(',');
+                }
+                header.append(packageName(index + i));
+            }
+            header.append('"');
+        }
+    },
+
+    /**
+     * Packages with the include and exclude class filters.
+     */
+    FILTERED {
+        @Override
+        void appendExport(StringBuilder header, String packageName, int index) {
+            header.append(packageName).append(";version=\"1.0.0\";include:=\"*Api,Public*\";exclude:=\"*Impl\"");
+        }
+    };
+
+    abstract void appendExport(StringBuilder header, String packageName, int index);
+
+    /**
+     * @return the Export-Package header exporting the given number of packages
+     */
+    String header(int packageCount) {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < packageCount; ++i) {
+            if (i > 0) {
+                ret.append(',');
+            }
+            appendExport(ret, packageName(i), i);
+        }
+        return ret.toString();
+    }
+
+    static String packageName(int index) {
+        return "org.example.bundle.module" + (index % 17) + ".pkg" + index;
+    }
+}
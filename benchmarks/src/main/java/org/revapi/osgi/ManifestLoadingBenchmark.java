@@ -0,0 +1,75 @@
+package org.revapi.osgi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.revapi.Archive;
+import org.revapi.simple.FileArchive;
+
+/**
+ * Loading of the manifest and its exports from small and large jar files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ManifestLoadingBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int entryCount;
+
+    /**
+     * Jars built by some tools don't have the manifest as the first entry.
+     */
+    @Param({"true", "false"})
+    public boolean manifestFirst;
+
+    private Path dir;
+    private Archive archive;
+    private ExportReader exportReader;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("revapi-osgi-bench");
+        File jar = SyntheticBundle.withEntries(dir, entryCount, manifestFirst, HeaderStyle.ATTRIBUTES.header(100));
+        archive = new FileArchive(jar);
+        exportReader = new ExportReader(1, null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticBundle.delete(dir);
+    }
+
+    @Benchmark
+    public byte[] centralDirectory() throws IOException {
+        return ManifestReader.read(archive);
+    }
+
+    @Benchmark
+    public byte[] zipStream() throws IOException {
+        return ManifestReader.stream(archive);
+    }
+
+    @Benchmark
+    public ExportIndex exports() {
+        return exportReader.read(archive);
+    }
+}
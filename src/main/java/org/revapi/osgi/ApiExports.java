@@ -0,0 +1,107 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptyMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.revapi.API;
+import org.revapi.Archive;
+
+/**
+ * The exports of the archives of a single API. The archives are only read when the exports are first needed, so that
+ * an analysis the filter is never consulted for costs nothing. The APIs created together are then all read at once,
+ * so that the archives of the old and the new API are read in parallel.
+ */
+final class ApiExports {
+    private final API api;
+    private final Loader loader;
+
+    // only contains the archives that export something, so that the archives without the Export-Package header cost
+    // just a failed lookup. With package patterns configured, all the archives export the packages they select.
+    private volatile Map<Archive, VerdictCache> exports;
+
+    private ApiExports(API api, Loader loader) {
+        this.api = api;
+        this.loader = loader;
+    }
+
+    /**
+     * @return the exports of each of the APIs, all read together on the first use of any of them
+     */
+    static Map<API, ApiExports> of(List<API> apis, ExportReader reader, PackagePatterns patterns,
+            FilterMetrics metrics) {
+        Loader loader = new Loader(reader, patterns, metrics);
+        Map<API, ApiExports> ret = new IdentityHashMap<>(4);
+        for (API api : apis) {
+            ret.computeIfAbsent(api, a -> {
+                ApiExports exports = new ApiExports(a, loader);
+                loader.apis.add(exports);
+                return exports;
+            });
+        }
+        return ret;
+    }
+
+    /**
+     * @return the exports of the archive or null if the archive doesn't export anything or is not part of the API
+     */
+    VerdictCache of(Archive archive) {
+        Map<Archive, VerdictCache> exports = getExports();
+        return exports.isEmpty() ? null : exports.get(archive);
+    }
+
+    private Map<Archive, VerdictCache> getExports() {
+        Map<Archive, VerdictCache> ret = exports;
+        if (ret == null) {
+            loader.load();
+            ret = exports;
+        }
+        return ret;
+    }
+
+    private static final class Loader {
+        private final ExportReader reader;
+        private final PackagePatterns patterns;
+        private final FilterMetrics metrics;
+        private final List<ApiExports> apis = new ArrayList<>(2);
+
+        private Loader(ExportReader reader, PackagePatterns patterns, FilterMetrics metrics) {
+            this.reader = reader;
+            this.patterns = patterns;
+            this.metrics = metrics;
+        }
+
+        synchronized void load() {
+            if (apis.get(0).exports != null) {
+                return;
+            }
+
+            List<List<Archive>> groups = new ArrayList<>(apis.size());
+            for (ApiExports exports : apis) {
+                List<Archive> archives = new ArrayList<>();
+                exports.api.getArchives().forEach(archives::add);
+                groups.add(archives);
+            }
+
+            List<Map<Archive, ExportIndex>> indices = reader.readGroups(groups);
+            for (int i = 0; i < apis.size(); ++i) {
+                apis.get(i).exports = toVerdictCaches(indices.get(i));
+            }
+        }
+
+        private Map<Archive, VerdictCache> toVerdictCaches(Map<Archive, ExportIndex> indices) {
+            Map<Archive, VerdictCache> ret = new HashMap<>();
+            indices.forEach((archive, index) -> {
+                if (!index.isEmpty() || !patterns.isEmpty()) {
+                    ret.put(archive, new VerdictCache(index, patterns, metrics));
+                }
+            });
+
+            return ret.isEmpty() ? emptyMap() : ret;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.revapi.osgi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Identifies the contents of an archive without reading all of it. Consists of the name of the archive, its size and
+ * the digest of its zip central directory.
+ */
+final class ArchiveFingerprint {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String archiveName;
+    private final long size;
+    private final byte[] directoryDigest;
+    private final int hashCode;
+
+    ArchiveFingerprint(String archiveName, long size, byte[] directoryDigest) {
+        this.archiveName = archiveName;
+        this.size = size;
+        this.directoryDigest = directoryDigest;
+        this.hashCode = 31 * (31 * archiveName.hashCode() + Long.hashCode(size)) + Arrays.hashCode(directoryDigest);
+    }
+
+    static ArchiveFingerprint of(String archiveName, ZipDirectory zip) throws IOException {
+        return new ArchiveFingerprint(archiveName, zip.getFileSize(), zip.digest());
+    }
+
+    String getArchiveName() {
+        return archiveName;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    byte[] getDirectoryDigest() {
+        return directoryDigest.clone();
+    }
+
+    /**
+     * @return a string uniquely derived from the fingerprint that is safe to use as a file name
+     */
+    String toFileName() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(archiveName.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            for (int i = 0; i < Long.BYTES; ++i) {
+                digest.update((byte) (size >>> (8 * i)));
+            }
+            digest.update(directoryDigest);
+
+            byte[] hash = digest.digest();
+            char[] ret = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; ++i) {
+                ret[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+                ret[2 * i + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(ret);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by the JVM.", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ArchiveFingerprint that = (ArchiveFingerprint) o;
+
+        return size == that.size && archiveName.equals(that.archiveName)
+                && Arrays.equals(directoryDigest, that.directoryDigest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveFingerprint{" +
+                "archiveName='" + archiveName + '\'' +
+                ", size=" + size +
+                '}';
+    }
+}
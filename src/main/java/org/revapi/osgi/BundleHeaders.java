@@ -0,0 +1,136 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The headers of a bundle manifest that determine what the bundle exports: the parsed Export-Package header and the
+ * identity of the bundle, i.e. its symbolic name and the symbolic name of its host if the bundle is a fragment.
+ */
+final class BundleHeaders {
+    static final BundleHeaders NONE = new BundleHeaders(emptySet(), null, null);
+
+    private static final byte[] BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FRAGMENT_HOST = "Fragment-Host".getBytes(StandardCharsets.US_ASCII);
+
+    private final Set<ExportPackageDefinition> exports;
+    private final String symbolicName;
+    private final String fragmentHost;
+
+    // computed on the first use, so that the headers shared by many archives only strip the attributes once
+    private volatile Set<ExportPackageDefinition> exportsWithoutAttributes;
+
+    /**
+     * @param exports the definitions of the Export-Package header
+     * @param symbolicName the symbolic name of the bundle or null if the archive is not a bundle
+     * @param fragmentHost the symbolic name of the host or null if the bundle is not a fragment
+     */
+    BundleHeaders(Set<ExportPackageDefinition> exports, String symbolicName, String fragmentHost) {
+        this.exports = exports;
+        this.symbolicName = symbolicName;
+        this.fragmentHost = fragmentHost;
+    }
+
+    private BundleHeaders(Set<ExportPackageDefinition> exports, Set<ExportPackageDefinition> exportsWithoutAttributes,
+            String symbolicName, String fragmentHost) {
+        this(exports, symbolicName, fragmentHost);
+        this.exportsWithoutAttributes = exportsWithoutAttributes;
+    }
+
+    /**
+     * Reads the identity of the bundle from the raw bytes of its manifest. The returned headers share the exports of
+     * these headers, including their form without the attributes.
+     */
+    BundleHeaders withIdentityOf(byte[] manifest) {
+        if (manifest == null) {
+            return exports.isEmpty() ? NONE : this;
+        }
+
+        return new BundleHeaders(exports, getExportsWithoutAttributes(),
+                nameOf(ExportPackageByteParser.findMainAttribute(manifest, BUNDLE_SYMBOLIC_NAME)),
+                nameOf(ExportPackageByteParser.findMainAttribute(manifest, FRAGMENT_HOST)));
+    }
+
+    /**
+     * Both Bundle-SymbolicName and Fragment-Host start with the symbolic name, optionally followed by parameters.
+     */
+    static String nameOf(byte[] header) {
+        if (header == null) {
+            return null;
+        }
+
+        String value = new String(header, StandardCharsets.UTF_8);
+        int semicolon = value.indexOf(';');
+        String name = (semicolon < 0 ? value : value.substring(0, semicolon)).trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    Set<ExportPackageDefinition> getExports() {
+        return exports;
+    }
+
+    String getSymbolicName() {
+        return symbolicName;
+    }
+
+    String getFragmentHost() {
+        return fragmentHost;
+    }
+
+    boolean isFragment() {
+        return fragmentHost != null;
+    }
+
+    boolean isEmpty() {
+        return exports.isEmpty() && symbolicName == null && fragmentHost == null;
+    }
+
+    /**
+     * @return the headers with the attributes of the export definitions left out
+     */
+    BundleHeaders withoutAttributes() {
+        Set<ExportPackageDefinition> stripped = getExportsWithoutAttributes();
+        return stripped == exports ? this : new BundleHeaders(stripped, stripped, symbolicName, fragmentHost);
+    }
+
+    private Set<ExportPackageDefinition> getExportsWithoutAttributes() {
+        Set<ExportPackageDefinition> ret = exportsWithoutAttributes;
+        if (ret == null) {
+            ret = exports.stream().map(ExportPackageDefinition::withoutAttributes).collect(toSet());
+            if (ret.equals(exports)) {
+                ret = exports;
+            }
+            exportsWithoutAttributes = ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BundleHeaders that = (BundleHeaders) o;
+
+        return exports.equals(that.exports) && Objects.equals(symbolicName, that.symbolicName)
+                && Objects.equals(fragmentHost, that.fragmentHost);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * exports.hashCode() + Objects.hashCode(symbolicName)) + Objects.hashCode(fragmentHost);
+    }
+
+    @Override
+    public String toString() {
+        return "BundleHeaders{" +
+                "symbolicName=" + symbolicName +
+                ", fragmentHost=" + fragmentHost +
+                ", exports=" + exports +
+                '}';
+    }
+}
@@ -0,0 +1,375 @@
+package org.revapi.osgi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Matches class names against the globs used in the {@code include:=} and {@code exclude:=} directives. The only
+ * special character in the globs is {@code *} which matches any (possibly empty) sequence of characters.
+ *
+ * <p>All the globs of a directive are compiled into a single matcher. Literal, prefix, suffix and "contains" globs are
+ * checked using plain string operations, the rest is merged into bit-parallel automata that match in time linear in
+ * the length of the class name (a lone general glob is matched segment by segment). Matching never allocates.
+ */
+abstract class ClassNameMatcher {
+    private static final char WILDCARD = '*';
+
+    static final ClassNameMatcher NONE = new ClassNameMatcher() {
+        @Override
+        boolean matches(String className) {
+            return false;
+        }
+    };
+
+    private static final ClassNameMatcher ANY = new ClassNameMatcher() {
+        @Override
+        boolean matches(String className) {
+            return true;
+        }
+    };
+
+    abstract boolean matches(String className);
+
+    static ClassNameMatcher compile(Collection<String> globs) {
+        if (globs.isEmpty()) {
+            return NONE;
+        } else if (globs.size() == 1) {
+            return compile(globs.iterator().next());
+        }
+
+        Set<String> literals = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        List<String> suffixes = new ArrayList<>();
+        List<String> infixes = new ArrayList<>();
+        List<String> general = new ArrayList<>();
+
+        for (String glob : globs) {
+            switch (Kind.of(glob)) {
+                case ANY:
+                    return ANY;
+                case LITERAL:
+                    literals.add(glob);
+                    break;
+                case PREFIX:
+                    prefixes.add(glob.substring(0, glob.length() - 1));
+                    break;
+                case SUFFIX:
+                    suffixes.add(glob.substring(1));
+                    break;
+                case INFIX:
+                    infixes.add(glob.substring(1, glob.length() - 1));
+                    break;
+                default:
+                    general.add(glob);
+            }
+        }
+
+        return new Union(literals, prefixes, suffixes, infixes, Automaton.compile(general));
+    }
+
+    private static ClassNameMatcher compile(String glob) {
+        switch (Kind.of(glob)) {
+            case ANY:
+                return ANY;
+            case LITERAL:
+                return new ClassNameMatcher() {
+                    @Override
+                    boolean matches(String className) {
+                        return glob.equals(className);
+                    }
+                };
+            case PREFIX:
+                String prefix = glob.substring(0, glob.length() - 1);
+                return new ClassNameMatcher() {
+                    @Override
+                    boolean matches(String className) {
+                        return className.startsWith(prefix);
+                    }
+                };
+            case SUFFIX:
+                String suffix = glob.substring(1);
+                return new ClassNameMatcher() {
+                    @Override
+                    boolean matches(String className) {
+                        return className.endsWith(suffix);
+                    }
+                };
+            case INFIX:
+                String infix = glob.substring(1, glob.length() - 1);
+                return new ClassNameMatcher() {
+                    @Override
+                    boolean matches(String className) {
+                        return className.contains(infix);
+                    }
+                };
+            default:
+                return new Segments(glob);
+        }
+    }
+
+    private static int countLiterals(String glob) {
+        int cnt = 0;
+        for (int i = 0; i < glob.length(); ++i) {
+            if (glob.charAt(i) != WILDCARD) {
+                cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    private enum Kind {
+        ANY, LITERAL, PREFIX, SUFFIX, INFIX, GENERAL;
+
+        static Kind of(String glob) {
+            int first = glob.indexOf(WILDCARD);
+            if (first == -1) {
+                return LITERAL;
+            }
+
+            int last = glob.lastIndexOf(WILDCARD);
+            if (countLiterals(glob) == 0) {
+                return ANY;
+            } else if (first == last) {
+                return first == 0 ? SUFFIX : last == glob.length() - 1 ? PREFIX : GENERAL;
+            } else if (first == 0 && last == glob.length() - 1 && glob.indexOf(WILDCARD, 1) == last) {
+                return INFIX;
+            } else {
+                return GENERAL;
+            }
+        }
+    }
+
+    private static final class Union extends ClassNameMatcher {
+        private final Set<String> literals;
+        private final String[] prefixes;
+        private final String[] suffixes;
+        private final String[] infixes;
+        private final ClassNameMatcher[] general;
+
+        Union(Set<String> literals, List<String> prefixes, List<String> suffixes, List<String> infixes,
+              ClassNameMatcher[] general) {
+            this.literals = literals;
+            this.prefixes = prefixes.toArray(new String[0]);
+            this.suffixes = suffixes.toArray(new String[0]);
+            this.infixes = infixes.toArray(new String[0]);
+            this.general = general;
+        }
+
+        @Override
+        boolean matches(String className) {
+            if (!literals.isEmpty() && literals.contains(className)) {
+                return true;
+            }
+
+            for (String p : prefixes) {
+                if (className.startsWith(p)) {
+                    return true;
+                }
+            }
+
+            for (String s : suffixes) {
+                if (className.endsWith(s)) {
+                    return true;
+                }
+            }
+
+            for (String i : infixes) {
+                if (className.contains(i)) {
+                    return true;
+                }
+            }
+
+            for (ClassNameMatcher m : general) {
+                if (m.matches(className)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A Shift-And automaton simulating the NFAs of several globs at once, one bit per NFA state. A glob with {@code n}
+     * literal characters has {@code n + 1} states - state {@code i} means "the first {@code i} literal characters
+     * matched". States followed by a wildcard loop on any character.
+     */
+    private static final class Automaton extends ClassNameMatcher {
+        private static final int ASCII = 128;
+
+        private final long initial;
+        private final long accepting;
+        private final long looping;
+        private final long[] asciiMasks;
+        private final char[] otherChars;
+        private final long[] otherMasks;
+
+        private Automaton(long initial, long accepting, long looping, long[] asciiMasks, char[] otherChars,
+                          long[] otherMasks) {
+            this.initial = initial;
+            this.accepting = accepting;
+            this.looping = looping;
+            this.asciiMasks = asciiMasks;
+            this.otherChars = otherChars;
+            this.otherMasks = otherMasks;
+        }
+
+        /**
+         * Packs the globs into as few 64-state automata as possible. Globs that would not fit into a single automaton
+         * on their own are matched segment by segment.
+         */
+        static ClassNameMatcher[] compile(List<String> globs) {
+            List<ClassNameMatcher> ret = new ArrayList<>(1);
+            List<String> batch = new ArrayList<>();
+            int bits = 0;
+            for (String glob : globs) {
+                int states = countLiterals(glob) + 1;
+                if (states > Long.SIZE) {
+                    ret.add(new Segments(glob));
+                    continue;
+                }
+
+                if (bits + states > Long.SIZE) {
+                    ret.add(build(batch));
+                    batch.clear();
+                    bits = 0;
+                }
+
+                batch.add(glob);
+                bits += states;
+            }
+
+            if (!batch.isEmpty()) {
+                ret.add(build(batch));
+            }
+
+            return ret.toArray(new ClassNameMatcher[0]);
+        }
+
+        private static Automaton build(List<String> globs) {
+            long initial = 0;
+            long accepting = 0;
+            long looping = 0;
+            long[] asciiMasks = new long[ASCII];
+            TreeMap<Character, Long> otherMasks = new TreeMap<>();
+
+            int state = 0;
+            for (String glob : globs) {
+                initial |= 1L << state;
+                for (int i = 0; i < glob.length(); ++i) {
+                    char c = glob.charAt(i);
+                    if (c == WILDCARD) {
+                        looping |= 1L << state;
+                    } else {
+                        state++;
+                        long bit = 1L << state;
+                        if (c < ASCII) {
+                            asciiMasks[c] |= bit;
+                        } else {
+                            otherMasks.merge(c, bit, (a, b) -> a | b);
+                        }
+                    }
+                }
+                accepting |= 1L << state;
+                state++;
+            }
+
+            char[] chars = new char[otherMasks.size()];
+            long[] masks = new long[otherMasks.size()];
+            int i = 0;
+            for (Map.Entry<Character, Long> e : otherMasks.entrySet()) {
+                chars[i] = e.getKey();
+                masks[i++] = e.getValue();
+            }
+
+            return new Automaton(initial, accepting, looping, asciiMasks, chars, masks);
+        }
+
+        @Override
+        boolean matches(String className) {
+            long states = initial;
+            for (int i = 0; i < className.length() && states != 0; ++i) {
+                states = ((states << 1) & maskOf(className.charAt(i))) | (states & looping);
+            }
+
+            return (states & accepting) != 0;
+        }
+
+        private long maskOf(char c) {
+            if (c < ASCII) {
+                return asciiMasks[c];
+            }
+
+            int idx = Arrays.binarySearch(otherChars, c);
+            return idx < 0 ? 0 : otherMasks[idx];
+        }
+    }
+
+    /**
+     * Greedy matching of the literal segments between the wildcards. Because the wildcards can match anything, taking
+     * the leftmost occurrence of each segment never needs to be revisited.
+     */
+    private static final class Segments extends ClassNameMatcher {
+        private final String[] segments;
+        private final boolean anchoredStart;
+        private final boolean anchoredEnd;
+
+        Segments(String glob) {
+            List<String> parts = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i <= glob.length(); ++i) {
+                if (i == glob.length() || glob.charAt(i) == WILDCARD) {
+                    if (i > start) {
+                        parts.add(glob.substring(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+
+            this.segments = parts.toArray(new String[0]);
+            this.anchoredStart = glob.charAt(0) != WILDCARD;
+            this.anchoredEnd = glob.charAt(glob.length() - 1) != WILDCARD;
+        }
+
+        @Override
+        boolean matches(String className) {
+            int from = 0;
+            int end = className.length();
+            int first = 0;
+            int last = segments.length;
+
+            if (anchoredStart) {
+                if (!className.startsWith(segments[0])) {
+                    return false;
+                }
+                from = segments[0].length();
+                first = 1;
+            }
+
+            if (anchoredEnd && last > first) {
+                String tail = segments[last - 1];
+                if (end - tail.length() < from || !className.endsWith(tail)) {
+                    return false;
+                }
+                end -= tail.length();
+                last--;
+            }
+
+            for (int i = first; i < last; ++i) {
+                int idx = className.indexOf(segments[i], from);
+                if (idx == -1 || idx + segments[i].length() > end) {
+                    return false;
+                }
+                from = idx + segments[i].length();
+            }
+
+            return true;
+        }
+    }
+}
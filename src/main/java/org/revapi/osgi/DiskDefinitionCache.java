@@ -0,0 +1,295 @@
+package org.revapi.osgi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the parsed export headers of archives in a directory so that they don't need to be read from the
+ * archives again in subsequent runs.
+ *
+ * <p>Each archive is stored in its own file named after its {@link ArchiveFingerprint}. The files are written to
+ * a temporary file first and then atomically moved in place, so concurrent processes (e.g. parallel Maven builds)
+ * sharing the directory only ever see complete entries. The least recently used entries are evicted when the total
+ * size of the cache exceeds the configured maximum.
+ *
+ * <p>Entries that can't be read, e.g. because they are truncated or corrupt, are treated as misses.
+ */
+final class DiskDefinitionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(DiskDefinitionCache.class);
+
+    private static final int MAGIC = 0x52564F53; // "RVOS"
+    private static final int FORMAT_VERSION = 3;
+    private static final String SUFFIX = ".exports";
+    private static final String TEMP_PREFIX = "exports";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // the temporary files of a process that crashed before moving them in place are removed after this time; no write
+    // takes anywhere near as long
+    private static final long STALE_TEMP_FILE_AGE = TimeUnit.HOURS.toMillis(1);
+
+    // the smallest possible serialized sizes, used to reject the counts that can't fit into the file
+    private static final int MIN_DEFINITION_SIZE = 4 * 4;
+    private static final int MIN_STRING_SIZE = 2;
+
+    private final Path directory;
+    private final long maxSize;
+
+    DiskDefinitionCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cached headers or null if the archive with given fingerprint is not cached
+     */
+    BundleHeaders get(ArchiveFingerprint fingerprint) {
+        Path file = directory.resolve(fingerprint.toFileName() + SUFFIX);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long fileSize = Files.size(file);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            // guard against hash collisions in the file name
+            if (!fingerprint.getArchiveName().equals(in.readUTF()) || fingerprint.getSize() != in.readLong()) {
+                return null;
+            }
+            byte[] digest = new byte[in.readUnsignedShort()];
+            in.readFully(digest);
+            if (!Arrays.equals(fingerprint.getDirectoryDigest(), digest)) {
+                return null;
+            }
+
+            String symbolicName = readOptionalString(in);
+            String fragmentHost = readOptionalString(in);
+
+            int count = readCount(in, fileSize, MIN_DEFINITION_SIZE);
+            Set<ExportPackageDefinition> ret = new HashSet<>(count * 2);
+            for (int i = 0; i < count; ++i) {
+                List<String> packageNames = readStrings(in, fileSize);
+                List<String> includes = readStrings(in, fileSize);
+                List<String> excludes = readStrings(in, fileSize);
+                List<String> attributes = readStrings(in, fileSize);
+                ret.add(new ExportPackageDefinition(packageNames, includes, excludes, toMap(attributes)));
+            }
+
+            touch(file);
+
+            return new BundleHeaders(ret, symbolicName, fragmentHost);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.debug("Failed to read the cached exports from " + file + ".", e);
+            return null;
+        }
+    }
+
+    void put(ArchiveFingerprint fingerprint, BundleHeaders headers) {
+        Path file = directory.resolve(fingerprint.toFileName() + SUFFIX);
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, TEMP_PREFIX, TEMP_SUFFIX);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(fingerprint.getArchiveName());
+                out.writeLong(fingerprint.getSize());
+                byte[] digest = fingerprint.getDirectoryDigest();
+                out.writeShort(digest.length);
+                out.write(digest);
+
+                writeOptionalString(out, headers.getSymbolicName());
+                writeOptionalString(out, headers.getFragmentHost());
+
+                out.writeInt(headers.getExports().size());
+                for (ExportPackageDefinition d : headers.getExports()) {
+                    writeStrings(out, d.getPackageNames());
+                    writeStrings(out, d.getIncludes());
+                    writeStrings(out, d.getExcludes());
+                    writeStrings(out, toList(d.getAttributes()));
+                }
+            }
+
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            LOG.debug("Failed to cache the exports of " + fingerprint + " in " + file + ".", e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    LOG.debug("Failed to delete the temporary file " + tmp + ".", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the total size of the cache fits into the configured maximum.
+     * Entries concurrently removed by other processes are silently skipped. The stale temporary files left behind by
+     * crashed processes are removed, too.
+     */
+    void evict() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        removeStaleTempFiles();
+
+        TreeMap<FileTime, List<Path>> byAge = new TreeMap<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    totalSize += attrs.size();
+                    byAge.computeIfAbsent(attrs.lastModifiedTime(), __ -> new ArrayList<>(1)).add(entry);
+                } catch (NoSuchFileException e) {
+                    // evicted by someone else in the meantime
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to list the cache directory " + directory + ".", e);
+            return;
+        }
+
+        for (Map.Entry<FileTime, List<Path>> e : byAge.entrySet()) {
+            for (Path entry : e.getValue()) {
+                if (totalSize <= maxSize) {
+                    return;
+                }
+
+                try {
+                    long size = Files.size(entry);
+                    Files.delete(entry);
+                    totalSize -= size;
+                } catch (NoSuchFileException ex) {
+                    // evicted by someone else in the meantime
+                } catch (IOException ex) {
+                    LOG.debug("Failed to evict " + entry + " from the cache.", ex);
+                }
+            }
+        }
+    }
+
+    private void removeStaleTempFiles() {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+        try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(directory, TEMP_PREFIX + "*" + TEMP_SUFFIX)) {
+            for (Path entry : entries) {
+                try {
+                    if (Files.getLastModifiedTime(entry).toMillis() < staleBefore) {
+                        Files.delete(entry);
+                    }
+                } catch (NoSuchFileException e) {
+                    // moved in place or removed by someone else in the meantime
+                } catch (IOException e) {
+                    LOG.debug("Failed to remove the stale temporary file " + entry + ".", e);
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to list the cache directory " + directory + ".", e);
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // the entry was probably just evicted, which is not a problem for the caller
+            LOG.trace("Failed to update the last modification time of " + file + ".", e);
+        }
+    }
+
+    /**
+     * @param limit the size of the file, which all the elements need to fit into
+     * @param elementSize the minimum size of a single element
+     */
+    private static int readCount(DataInputStream in, long limit, int elementSize) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || (long) count * elementSize > limit) {
+            throw new IOException("Invalid element count " + count + ".");
+        }
+        return count;
+    }
+
+    private static List<String> readStrings(DataInputStream in, long limit) throws IOException {
+        int count = readCount(in, limit, MIN_STRING_SIZE);
+        List<String> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(in.readUTF());
+        }
+        return ret;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static List<String> toList(Map<String, String> attributes) {
+        List<String> ret = new ArrayList<>(attributes.size() * 2);
+        attributes.forEach((name, value) -> {
+            ret.add(name);
+            ret.add(value);
+        });
+        return ret;
+    }
+
+    private static Map<String, String> toMap(List<String> attributes) throws IOException {
+        if (attributes.size() % 2 != 0) {
+            throw new IOException("Odd number of attribute names and values.");
+        }
+
+        Map<String, String> ret = new LinkedHashMap<>(attributes.size());
+        for (int i = 0; i < attributes.size(); i += 2) {
+            ret.put(attributes.get(i), attributes.get(i + 1));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,243 @@
+package org.revapi.osgi;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.revapi.API;
+import org.revapi.Archive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A jar embedded in a bundle and listed in its Bundle-ClassPath header. The classes of the embedded jars are exported
+ * according to the Export-Package header of the bundle, which is what the filter does for the elements from these
+ * archives.
+ *
+ * <p>The contents of the embedded jar are always read through the bundle. If the bundle is a file, the embedded jar is
+ * read directly from its region of the file, otherwise the bundle is streamed up to the embedded jar. Nothing is ever
+ * extracted to a temporary file.
+ *
+ * <p>revapi-java only sees the archives of the API, so the embedded jars need to be added to the API, e.g. using
+ * {@link #withEmbeddedArchives(API)}.
+ */
+public final class EmbeddedArchive implements Archive {
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedArchive.class);
+
+    private static final byte[] BUNDLE_CLASS_PATH = "Bundle-ClassPath".getBytes(StandardCharsets.US_ASCII);
+
+    private final Archive bundle;
+    private final String path;
+
+    EmbeddedArchive(Archive bundle, String path) {
+        this.bundle = bundle;
+        this.path = path;
+    }
+
+    /**
+     * @return the jars listed in the Bundle-ClassPath header of the bundle that are present in it, in the order of the
+     * header. The directories of the bundle listed in the header are not archives of their own and are left out.
+     */
+    public static List<EmbeddedArchive> embeddedIn(Archive bundle) throws IOException {
+        byte[] manifest = ManifestReader.read(bundle);
+        byte[] header = manifest == null ? null : ExportPackageByteParser.findMainAttribute(manifest, BUNDLE_CLASS_PATH);
+        if (header == null) {
+            return new ArrayList<>();
+        }
+
+        List<String> paths = classPathOf(new String(header, StandardCharsets.UTF_8));
+        if (paths.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Set<String> entries = new HashSet<>(entryNames(bundle));
+
+        List<EmbeddedArchive> ret = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            if (entries.contains(path)) {
+                ret.add(new EmbeddedArchive(bundle, path));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the API with the jars embedded in its primary archives added to the primary archives
+     */
+    public static API withEmbeddedArchives(API api) throws IOException {
+        List<Archive> archives = new ArrayList<>();
+        for (Archive archive : api.getArchives()) {
+            archives.add(archive);
+            archives.addAll(embeddedIn(archive));
+        }
+
+        return API.of(archives).supportedBy(api.getSupplementaryArchives()).build();
+    }
+
+    /**
+     * The entries of Bundle-ClassPath are the paths before the first ';' of each clause. The bundle itself, '.', is
+     * not an embedded archive.
+     */
+    static List<String> classPathOf(String header) {
+        List<String> ret = new ArrayList<>();
+
+        boolean inQuotes = false;
+        boolean inPath = true;
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i <= header.length(); ++i) {
+            char c = i == header.length() ? ',' : header.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                addPath(ret, path.toString().trim());
+                path.setLength(0);
+                inPath = true;
+            } else if (c == ';' && !inQuotes) {
+                inPath = false;
+            } else if (inPath) {
+                path.append(c);
+            }
+        }
+
+        return ret;
+    }
+
+    private static void addPath(List<String> paths, String path) {
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
+        if (!path.isEmpty() && !path.equals(".") && !path.endsWith("/") && !paths.contains(path)) {
+            paths.add(path);
+        }
+    }
+
+    private static List<String> entryNames(Archive archive) throws IOException {
+        try (InputStream in = archive.openStream()) {
+            if (in instanceof FileInputStream) {
+                try {
+                    return ZipDirectory.read(((FileInputStream) in).getChannel()).names();
+                } catch (ZipException e) {
+                    LOG.debug("Failed to read the central directory of " + archive + ". Will stream it instead.", e);
+                }
+            }
+        }
+
+        List<String> ret = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(archive.openStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                ret.add(entry.getName());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the bundle that embeds this archive
+     */
+    public Archive getBundle() {
+        return bundle;
+    }
+
+    /**
+     * @return the path of this archive inside the bundle
+     */
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        return bundle.getName() + "!/" + path;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        InputStream in = bundle.openStream();
+        try {
+            if (in instanceof FileInputStream) {
+                InputStream ret = openFromDirectory((FileInputStream) in);
+                if (ret != null) {
+                    return ret;
+                }
+                in.close();
+                in = bundle.openStream();
+            }
+
+            ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (path.equals(entry.getName())) {
+                    // the zip stream reports the end of the stream at the end of the current entry
+                    return zip;
+                }
+            }
+
+            throw new FileNotFoundException(path + " not found in " + bundle.getName() + ".");
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the stream of the embedded archive or null if the bundle is not a zip file with a readable central
+     * directory
+     */
+    private InputStream openFromDirectory(FileInputStream in) throws IOException {
+        ZipDirectory zip;
+        try {
+            zip = ZipDirectory.read(in.getChannel());
+        } catch (ZipException e) {
+            LOG.debug("Failed to read the central directory of " + bundle + ". Will stream it instead.", e);
+            return null;
+        }
+
+        ZipDirectory.Entry entry = zip.find(path);
+        if (entry == null) {
+            throw new FileNotFoundException(path + " not found in " + bundle.getName() + ".");
+        }
+
+        return new FilterInputStream(zip.openStream(entry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EmbeddedArchive that = (EmbeddedArchive) o;
+
+        return bundle.equals(that.bundle) && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * bundle.hashCode() + path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddedArchive[" + getName() + "]";
+    }
+}
@@ -0,0 +1,59 @@
+package org.revapi.osgi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps packages to the verdicts of the export definitions that cover them. The index is immutable and doesn't reference
+ * any elements of the analyzed APIs so that it can be shared between analyses. It also keeps the headers it was built
+ * from, so that the exports of fragments can be merged with the exports of their hosts.
+ */
+final class ExportIndex {
+    static final ExportIndex EMPTY = new ExportIndex(BundleHeaders.NONE);
+
+    private final BundleHeaders headers;
+    private final Map<String, PackageVerdict> verdictsByPackage;
+
+    private ExportIndex(BundleHeaders headers) {
+        this.headers = headers;
+
+        Map<String, List<ExportPackageDefinition>> definitionsByPackage = new HashMap<>();
+        for (ExportPackageDefinition d : headers.getExports()) {
+            for (String packageName : d.getPackageNames()) {
+                definitionsByPackage.computeIfAbsent(packageName, __ -> new ArrayList<>(1)).add(d);
+            }
+        }
+
+        Map<String, PackageVerdict> verdicts = new HashMap<>(definitionsByPackage.size() * 4 / 3 + 1);
+        definitionsByPackage.forEach((p, ds) -> verdicts.put(p, PackageVerdict.of(ds)));
+        this.verdictsByPackage = verdicts;
+    }
+
+    static ExportIndex of(Collection<ExportPackageDefinition> definitions) {
+        return of(new BundleHeaders(new HashSet<>(definitions), null, null));
+    }
+
+    static ExportIndex of(BundleHeaders headers) {
+        return headers.isEmpty() ? EMPTY : new ExportIndex(headers);
+    }
+
+    BundleHeaders getHeaders() {
+        return headers;
+    }
+
+    boolean isEmpty() {
+        return verdictsByPackage.isEmpty();
+    }
+
+    int getPackageCount() {
+        return verdictsByPackage.size();
+    }
+
+    PackageVerdict verdictOf(String packageName) {
+        return verdictsByPackage.getOrDefault(packageName, PackageVerdict.NOT_EXPORTED);
+    }
+}
@@ -0,0 +1,284 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptyList;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.jboss.dmr.ModelNode;
+import org.revapi.API;
+import org.revapi.AnalysisContext;
+import org.revapi.ApiAnalyzer;
+import org.revapi.Archive;
+import org.revapi.ArchiveAnalyzer;
+import org.revapi.CompatibilityType;
+import org.revapi.CorrespondenceComparatorDeducer;
+import org.revapi.DifferenceAnalyzer;
+import org.revapi.DifferenceSeverity;
+import org.revapi.Element;
+import org.revapi.Report;
+import org.revapi.simple.SimpleElement;
+import org.revapi.simple.SimpleElementForest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares only the Export-Package headers of the old and new bundles. Only the manifests of the archives are read, so
+ * the analysis takes milliseconds even for large bundles and can be used as a cheap gate before (or alongside) the
+ * full analysis of the classes.
+ *
+ * <p>The analyzer reports:
+ * <ul>
+ *     <li>{@code osgi.package.exportRemoved} - the package is no longer exported,</li>
+ *     <li>{@code osgi.package.exportAdded} - the package is newly exported,</li>
+ *     <li>{@code osgi.package.versionChanged} - the version of the exported package changed,</li>
+ *     <li>{@code osgi.package.filtersChanged} - the include or exclude directives of the package changed.</li>
+ * </ul>
+ *
+ * <p>The analyzer is found on the class path together with the other extensions, so it does nothing unless enabled
+ * in its configuration.
+ */
+public final class ExportPackageAnalyzer implements ApiAnalyzer {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportPackageAnalyzer.class);
+
+    private boolean enabled;
+
+    public ArchiveAnalyzer getArchiveAnalyzer(API api) {
+        return () -> enabled ? analyze(api) : new ExportForest(api);
+    }
+
+    public DifferenceAnalyzer getDifferenceAnalyzer(ArchiveAnalyzer oldArchive, ArchiveAnalyzer newArchive) {
+        return new ExportDifferenceAnalyzer();
+    }
+
+    public CorrespondenceComparatorDeducer getCorrespondenceDeducer() {
+        return CorrespondenceComparatorDeducer.naturalOrder();
+    }
+
+    public String getExtensionId() {
+        // not under revapi.osgi, whose schema doesn't allow any other properties
+        return "revapi.osgi-exports";
+    }
+
+    public Reader getJSONSchema() {
+        return new InputStreamReader(
+                getClass().getResourceAsStream("/META-INF/revapi-osgi-exports-config-schema.json"),
+                StandardCharsets.UTF_8);
+    }
+
+    public void initialize(AnalysisContext analysisContext) {
+        ModelNode enabled = analysisContext.getConfiguration().get("enabled");
+        this.enabled = enabled.isDefined() && enabled.asBoolean();
+    }
+
+    public void close() {
+    }
+
+    /**
+     * If the same package is exported by several archives of the API, the first export wins, as it would on the class
+     * path. The embedded archives are exported by the manifests of their bundles.
+     */
+    static ExportForest analyze(API api) {
+        ExportForest forest = new ExportForest(api);
+        Set<String> seen = new HashSet<>();
+        Set<Archive> bundles = new HashSet<>();
+
+        for (Archive archive : api.getArchives()) {
+            while (archive instanceof EmbeddedArchive) {
+                archive = ((EmbeddedArchive) archive).getBundle();
+            }
+            if (!bundles.add(archive)) {
+                continue;
+            }
+
+            for (ExportPackageDefinition definition : readDefinitions(archive)) {
+                for (String packageName : definition.getPackageNames()) {
+                    if (seen.add(packageName)) {
+                        forest.getRoots().add(new ExportedPackageElement(api, archive, packageName, definition));
+                    }
+                }
+            }
+        }
+
+        return forest;
+    }
+
+    private static Set<ExportPackageDefinition> readDefinitions(Archive archive) {
+        Set<ExportPackageDefinition> ret = new LinkedHashSet<>();
+        try {
+            byte[] manifest = ManifestReader.read(archive);
+            byte[] header = manifest == null ? null : ExportPackageByteParser.findHeader(manifest);
+            if (header != null) {
+                ExportPackageByteParser.parseValue(header, header.length, ret);
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to open the archive " + archive + " as a jar.", e);
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Failed to parse the Export-Package header of the archive " + archive + ".", e);
+            // whatever was parsed before the error is not trusted, the archive is considered to export nothing
+            ret.clear();
+        }
+        return ret;
+    }
+
+    static final class ExportForest extends SimpleElementForest {
+        private final SortedSet<SimpleElement> roots = new TreeSet<>();
+
+        ExportForest(API api) {
+            super(api);
+        }
+
+        @Override
+        public SortedSet<SimpleElement> getRoots() {
+            return roots;
+        }
+    }
+
+    static final class ExportDifferenceAnalyzer implements DifferenceAnalyzer {
+
+        public void open() {
+        }
+
+        public void beginAnalysis(Element oldElement, Element newElement) {
+        }
+
+        public Report endAnalysis(Element oldElement, Element newElement) {
+            ExportedPackageElement oldPackage = (ExportedPackageElement) oldElement;
+            ExportedPackageElement newPackage = (ExportedPackageElement) newElement;
+
+            if (oldPackage == null && newPackage == null) {
+                return new Report(emptyList(), null, null);
+            }
+
+            Report.Builder report = Report.builder().withOld(oldPackage).withNew(newPackage);
+            String packageName = (oldPackage == null ? newPackage : oldPackage).getPackageName();
+
+            if (newPackage == null) {
+                report.addProblem().withCode("osgi.package.exportRemoved")
+                        .withName("package no longer exported")
+                        .withDescription("The package " + packageName + " is no longer exported.")
+                        .addClassification(CompatibilityType.BINARY, DifferenceSeverity.BREAKING)
+                        .addClassification(CompatibilityType.SOURCE, DifferenceSeverity.BREAKING)
+                        .addAttachment("package", packageName)
+                        .done();
+            } else if (oldPackage == null) {
+                report.addProblem().withCode("osgi.package.exportAdded")
+                        .withName("package newly exported")
+                        .withDescription("The package " + packageName + " is newly exported.")
+                        .addClassification(CompatibilityType.BINARY, DifferenceSeverity.NON_BREAKING)
+                        .addClassification(CompatibilityType.SOURCE, DifferenceSeverity.NON_BREAKING)
+                        .addAttachment("package", packageName)
+                        .done();
+            } else {
+                compareVersions(report, packageName, oldPackage.getVersion(), newPackage.getVersion());
+
+                if (!oldPackage.getIncludes().equals(newPackage.getIncludes())
+                        || !oldPackage.getExcludes().equals(newPackage.getExcludes())) {
+                    report.addProblem().withCode("osgi.package.filtersChanged")
+                            .withName("exported classes filters changed")
+                            .withDescription("The include or exclude directives of the export of the package "
+                                    + packageName + " changed.")
+                            .addClassification(CompatibilityType.BINARY, DifferenceSeverity.POTENTIALLY_BREAKING)
+                            .addClassification(CompatibilityType.SOURCE, DifferenceSeverity.POTENTIALLY_BREAKING)
+                            .addAttachment("package", packageName)
+                            .addAttachment("oldIncludes", String.join(",", oldPackage.getIncludes()))
+                            .addAttachment("newIncludes", String.join(",", newPackage.getIncludes()))
+                            .addAttachment("oldExcludes", String.join(",", oldPackage.getExcludes()))
+                            .addAttachment("newExcludes", String.join(",", newPackage.getExcludes()))
+                            .done();
+                }
+            }
+
+            return report.build();
+        }
+
+        public void close() {
+        }
+
+        /**
+         * An increase of the major version declares a breaking change, any other increase a compatible one. A decrease
+         * of the version is suspicious in itself.
+         */
+        private static void compareVersions(Report.Builder report, String packageName, String oldVersion,
+                String newVersion) {
+            int[] oldParts = versionParts(oldVersion);
+            int[] newParts = versionParts(newVersion);
+
+            int cmp = compare(oldParts, newParts);
+            if (cmp == 0) {
+                cmp = qualifier(oldVersion).compareTo(qualifier(newVersion));
+            }
+            if (cmp == 0) {
+                return;
+            }
+
+            DifferenceSeverity severity;
+            if (cmp > 0) {
+                severity = DifferenceSeverity.POTENTIALLY_BREAKING;
+            } else if (newParts[0] > oldParts[0]) {
+                severity = DifferenceSeverity.BREAKING;
+            } else {
+                severity = DifferenceSeverity.NON_BREAKING;
+            }
+
+            report.addProblem().withCode("osgi.package.versionChanged")
+                    .withName("exported package version changed")
+                    .withDescription("The version of the exported package " + packageName + " changed from "
+                            + versionOrDefault(oldVersion) + " to " + versionOrDefault(newVersion) + ".")
+                    .addClassification(CompatibilityType.SEMANTIC, severity)
+                    .addAttachment("package", packageName)
+                    .addAttachment("oldVersion", versionOrDefault(oldVersion))
+                    .addAttachment("newVersion", versionOrDefault(newVersion))
+                    .done();
+        }
+
+        private static String versionOrDefault(String version) {
+            return version == null ? "0.0.0" : version;
+        }
+
+        /**
+         * @return the major, minor and micro parts of the OSGi version, the missing or malformed ones being 0
+         */
+        private static int[] versionParts(String version) {
+            int[] ret = new int[3];
+            if (version == null) {
+                return ret;
+            }
+
+            String[] parts = version.split("\\.", 4);
+            for (int i = 0; i < ret.length && i < parts.length; ++i) {
+                try {
+                    ret[i] = Integer.parseInt(parts[i].trim());
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+            return ret;
+        }
+
+        private static String qualifier(String version) {
+            if (version == null) {
+                return "";
+            }
+
+            String[] parts = version.split("\\.", 4);
+            return parts.length == 4 ? parts[3].trim() : "";
+        }
+
+        private static int compare(int[] a, int[] b) {
+            for (int i = 0; i < a.length; ++i) {
+                if (a[i] != b[i]) {
+                    return Integer.compare(a[i], b[i]);
+                }
+            }
+            return 0;
+        }
+    }
+}
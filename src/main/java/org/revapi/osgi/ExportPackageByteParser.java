@@ -0,0 +1,581 @@
+package org.revapi.osgi;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parses the Export-Package header directly from the raw bytes of a manifest, without decoding the whole manifest to
+ * strings first. The grammar and its quirks are exactly those of {@link ExportPackageEntryParser}; only the input
+ * representation differs. Large bundles can have Export-Package headers of hundreds of kilobytes, so the parser works
+ * on the UTF-8 bytes using a reusable byte accumulator and only creates strings for the names it actually keeps.
+ */
+final class ExportPackageByteParser {
+    private static final byte[] HEADER_NAME = "Export-Package".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int EXPORT = 0;
+    private static final int PACKAGE = 1;
+    private static final int PARAMETER = 2;
+    private static final int MAYBE_DIRECTIVE_VALUE = 3;
+    private static final int DIRECTIVE_VALUE_START = 4;
+    private static final int DIRECTIVE_VALUE = 5;
+    private static final int DIRECTIVE_VALUE_IN_QUOTES = 6;
+    private static final int EXPECT_DIRECTIVE_VALUE_END = 7;
+    private static final int DIRECTIVE_VALUE_IN_QUOTES_ESCAPE = 8;
+    private static final int ATTRIBUTE_VALUE = 9;
+    private static final int ATTRIBUTE_VALUE_IN_QUOTES = 10;
+    private static final int ATTRIBUTE_VALUE_IN_QUOTES_ESCAPE = 11;
+
+    private static final boolean[] ASCII_IDENTIFIER_PART = new boolean[128];
+
+    static {
+        for (char c = 0; c < ASCII_IDENTIFIER_PART.length; ++c) {
+            ASCII_IDENTIFIER_PART[c] = c == '.' || Character.isJavaIdentifierPart(c);
+        }
+    }
+
+    private final Set<ExportPackageDefinition> output;
+
+    private byte[] accumulator = new byte[64];
+    private int accumulated;
+
+    private boolean isInclude;
+    private boolean isExclude;
+    private final List<String> packages = new ArrayList<>(2);
+    private final List<String> include = new ArrayList<>(2);
+    private final List<String> exclude = new ArrayList<>(2);
+    private final Map<String, String> attributes = new LinkedHashMap<>(2);
+    private int clauses;
+    private String attributeName;
+
+    private ExportPackageByteParser(Set<ExportPackageDefinition> output) {
+        this.output = output;
+    }
+
+    /**
+     * Finds the Export-Package header in the main section of the manifest and parses it.
+     *
+     * @param manifest the raw bytes of the manifest
+     * @param output the set to add the parsed definitions to
+     */
+    static void parse(byte[] manifest, Set<ExportPackageDefinition> output) {
+        byte[] value = findHeader(manifest);
+        if (value != null) {
+            parseValue(value, value.length, output);
+        }
+    }
+
+    /**
+     * @return the unfolded value of the Export-Package header in the main section of the manifest or null if there is
+     * no such header
+     */
+    static byte[] findHeader(byte[] manifest) {
+        return findMainAttribute(manifest, HEADER_NAME);
+    }
+
+    /**
+     * Parses the unfolded value of the Export-Package header.
+     *
+     * @return the number of the clauses of the header, including the ones equal to the definitions already in the
+     * output
+     */
+    static int parseValue(byte[] value, int length, Set<ExportPackageDefinition> output) {
+        Object event = FilterEvents.startHeaderParse();
+
+        ExportPackageByteParser parser = new ExportPackageByteParser(output);
+        parser.run(value, length);
+
+        FilterEvents.endHeaderParse(event, length, parser.clauses);
+        return parser.clauses;
+    }
+
+    /**
+     * Returns the value of the main attribute with the given name with the continuation lines joined, or null if the
+     * main section doesn't contain such attribute. As with {@link java.util.jar.Manifest}, the attribute names are
+     * case-insensitive and the last occurrence of a repeated attribute wins.
+     */
+    static byte[] findMainAttribute(byte[] manifest, byte[] name) {
+        byte[] ret = null;
+        int len = 0;
+        boolean inValue = false;
+
+        int pos = 0;
+        while (pos < manifest.length) {
+            int lineEnd = pos;
+            while (lineEnd < manifest.length && manifest[lineEnd] != '\n' && manifest[lineEnd] != '\r') {
+                ++lineEnd;
+            }
+
+            int next = lineEnd;
+            if (next < manifest.length) {
+                next += manifest[next] == '\r' && next + 1 < manifest.length && manifest[next + 1] == '\n' ? 2 : 1;
+            }
+
+            if (lineEnd == pos) {
+                // the empty line ends the main section
+                break;
+            }
+
+            if (manifest[pos] == ' ') {
+                if (inValue) {
+                    int lineLength = lineEnd - pos - 1;
+                    if (len + lineLength > ret.length) {
+                        ret = Arrays.copyOf(ret, Math.max(ret.length * 2, len + lineLength));
+                    }
+                    System.arraycopy(manifest, pos + 1, ret, len, lineLength);
+                    len += lineLength;
+                }
+            } else if (isHeader(manifest, pos, lineEnd, name)) {
+                int valueStart = pos + name.length + 2;
+                len = lineEnd - valueStart;
+                ret = new byte[Math.max(len * 2, 64)];
+                System.arraycopy(manifest, valueStart, ret, 0, len);
+                inValue = true;
+            } else {
+                inValue = false;
+            }
+
+            pos = next;
+        }
+
+        return ret == null ? null : Arrays.copyOf(ret, len);
+    }
+
+    private static boolean isHeader(byte[] manifest, int pos, int lineEnd, byte[] name) {
+        if (lineEnd - pos < name.length + 2 || manifest[pos + name.length] != ':'
+                || manifest[pos + name.length + 1] != ' ') {
+            return false;
+        }
+
+        for (int i = 0; i < name.length; ++i) {
+            if (toLowerCase(manifest[pos + i]) != toLowerCase(name[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    private void run(byte[] value, int length) {
+        int state = EXPORT;
+        int i = 0;
+        while (i < length) {
+            byte b = value[i];
+            int width = 1;
+
+            switch (state) {
+                case EXPORT:
+                    if (b >= 0) {
+                        if (Character.isJavaIdentifierStart((char) b)) {
+                            accumulate(b);
+                            state = PACKAGE;
+                        } else if (!Character.isWhitespace((char) b)) {
+                            throw error(value, length, i);
+                        }
+                    } else {
+                        int cp = decode(value, i, length);
+                        if (cp < 0) {
+                            throw error(value, length, i);
+                        }
+                        width = sequenceLength(b);
+                        if (Character.isJavaIdentifierStart(cp)) {
+                            accumulate(value, i, width);
+                            state = PACKAGE;
+                        } else if (!Character.isWhitespace(cp)) {
+                            throw error(value, length, i);
+                        }
+                    }
+                    break;
+                case PACKAGE:
+                    switch (b) {
+                        case '.':
+                            accumulate(b);
+                            break;
+                        case ';':
+                            packageDone();
+                            state = EXPORT;
+                            break;
+                        case ',':
+                            packageDone();
+                            exportDone();
+                            state = EXPORT;
+                            break;
+                        case ':':
+                            state = MAYBE_DIRECTIVE_VALUE;
+                            break;
+                        case '=':
+                            //so this is not a package name after all, it is an attribute
+                            attributeNameDone();
+                            state = ATTRIBUTE_VALUE;
+                            break;
+                        default:
+                            if (b >= 0) {
+                                int end = i;
+                                while (end < length && value[end] >= 0 && ASCII_IDENTIFIER_PART[value[end]]) {
+                                    ++end;
+                                }
+                                if (end == i) {
+                                    throw error(value, length, i);
+                                }
+                                width = end - i;
+                                accumulate(value, i, width);
+                            } else {
+                                int cp = decode(value, i, length);
+                                if (cp < 0 || !Character.isJavaIdentifierPart(cp)) {
+                                    throw error(value, length, i);
+                                }
+                                width = sequenceLength(b);
+                                accumulate(value, i, width);
+                            }
+                    }
+                    break;
+                case PARAMETER:
+                    switch (b) {
+                        case ':':
+                            state = MAYBE_DIRECTIVE_VALUE;
+                            break;
+                        case '=':
+                            attributeNameDone();
+                            state = ATTRIBUTE_VALUE;
+                            break;
+                        case ',':
+                            exportDone();
+                            state = EXPORT;
+                            break;
+                        default:
+                            accumulate(b);
+                    }
+                    break;
+                case MAYBE_DIRECTIVE_VALUE:
+                    if (b != '=') {
+                        throw error(value, length, i);
+                    }
+                    directiveNameDone();
+                    state = DIRECTIVE_VALUE_START;
+                    break;
+                case DIRECTIVE_VALUE_START:
+                    if (b == '"') {
+                        state = DIRECTIVE_VALUE_IN_QUOTES;
+                    } else {
+                        accumulate(b);
+                        state = DIRECTIVE_VALUE;
+                    }
+                    break;
+                case DIRECTIVE_VALUE:
+                    switch (b) {
+                        case ';':
+                            directiveValueDone();
+                            state = PARAMETER;
+                            break;
+                        case ',':
+                            directiveValueDone();
+                            exportDone();
+                            state = EXPORT;
+                            break;
+                        default:
+                            width = indexOf(value, i, length, (byte) ';', (byte) ',') - i;
+                            if (isInclude || isExclude) {
+                                accumulate(value, i, width);
+                            }
+                    }
+                    break;
+                case DIRECTIVE_VALUE_IN_QUOTES:
+                    switch (b) {
+                        case '\\':
+                            state = DIRECTIVE_VALUE_IN_QUOTES_ESCAPE;
+                            break;
+                        case '"':
+                            directiveValueDone();
+                            state = EXPECT_DIRECTIVE_VALUE_END;
+                            break;
+                        default:
+                            width = indexOf(value, i, length, (byte) '\\', (byte) '"') - i;
+                            if (isInclude || isExclude) {
+                                accumulate(value, i, width);
+                            }
+                    }
+                    break;
+                case EXPECT_DIRECTIVE_VALUE_END:
+                    switch (b) {
+                        case ';':
+                            state = PARAMETER;
+                            break;
+                        case ',':
+                            exportDone();
+                            state = EXPORT;
+                            break;
+                        default:
+                            throw error(value, length, i);
+                    }
+                    break;
+                case DIRECTIVE_VALUE_IN_QUOTES_ESCAPE:
+                    // the escaped character is copied whole so that its continuation bytes aren't taken for escapes
+                    width = b >= 0 ? 1 : Math.min(sequenceLength(b), length - i);
+                    accumulate(value, i, width);
+                    state = DIRECTIVE_VALUE_IN_QUOTES;
+                    break;
+                case ATTRIBUTE_VALUE:
+                    switch (b) {
+                        case ';':
+                            attributeValueDone();
+                            state = PARAMETER;
+                            break;
+                        case ',':
+                            attributeValueDone();
+                            exportDone();
+                            state = EXPORT;
+                            break;
+                        case '"':
+                            state = ATTRIBUTE_VALUE_IN_QUOTES;
+                            break;
+                        default:
+                            width = indexOf(value, i, length, (byte) ';', (byte) ',', (byte) '"') - i;
+                            accumulate(value, i, width);
+                    }
+                    break;
+                case ATTRIBUTE_VALUE_IN_QUOTES:
+                    switch (b) {
+                        case '\\':
+                            state = ATTRIBUTE_VALUE_IN_QUOTES_ESCAPE;
+                            break;
+                        case '"':
+                            attributeValueDone();
+                            state = EXPECT_DIRECTIVE_VALUE_END;
+                            break;
+                        default:
+                            width = indexOf(value, i, length, (byte) '\\', (byte) '"') - i;
+                            accumulate(value, i, width);
+                    }
+                    break;
+                case ATTRIBUTE_VALUE_IN_QUOTES_ESCAPE:
+                    width = b >= 0 ? 1 : Math.min(sequenceLength(b), length - i);
+                    accumulate(value, i, width);
+                    state = ATTRIBUTE_VALUE_IN_QUOTES;
+                    break;
+                default:
+                    throw new AssertionError("Unknown parser state " + state);
+            }
+
+            i += width;
+        }
+
+        finish(state);
+    }
+
+    private void finish(int state) {
+        switch (state) {
+            case PACKAGE:
+                packageDone();
+                exportDone();
+                break;
+            case DIRECTIVE_VALUE_START:
+            case DIRECTIVE_VALUE:
+            case EXPECT_DIRECTIVE_VALUE_END:
+                directiveValueDone();
+                exportDone();
+                break;
+            case ATTRIBUTE_VALUE:
+                attributeValueDone();
+                exportDone();
+                break;
+            default:
+                exportDone();
+        }
+    }
+
+    private void accumulate(byte b) {
+        if (accumulated == accumulator.length) {
+            accumulator = Arrays.copyOf(accumulator, accumulated * 2);
+        }
+        accumulator[accumulated++] = b;
+    }
+
+    private void accumulate(byte[] bytes, int offset, int length) {
+        if (accumulated + length > accumulator.length) {
+            accumulator = Arrays.copyOf(accumulator, Math.max(accumulator.length * 2, accumulated + length));
+        }
+        System.arraycopy(bytes, offset, accumulator, accumulated, length);
+        accumulated += length;
+    }
+
+    private boolean accumulatedEquals(String ascii) {
+        if (accumulated != ascii.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < accumulated; ++i) {
+            if (accumulator[i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String accumulatedString(int from, int to) {
+        return new String(accumulator, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private void directiveNameDone() {
+        isInclude = accumulatedEquals("include");
+        isExclude = !isInclude && accumulatedEquals("exclude");
+        accumulated = 0;
+    }
+
+    private void attributeNameDone() {
+        attributeName = trimmed(0, accumulated);
+        accumulated = 0;
+    }
+
+    private void attributeValueDone() {
+        if (attributeName != null) {
+            attributes.put(attributeName, trimmed(0, accumulated));
+            attributeName = null;
+        }
+        accumulated = 0;
+    }
+
+    private void packageDone() {
+        packages.add(accumulatedString(0, accumulated));
+        accumulated = 0;
+    }
+
+    private void directiveValueDone() {
+        if (isInclude) {
+            splitAndTrim(include);
+        } else if (isExclude) {
+            splitAndTrim(exclude);
+        }
+        accumulated = 0;
+        isExclude = false;
+        isInclude = false;
+    }
+
+    private void exportDone() {
+        output.add(new ExportPackageDefinition(packages, include, exclude, attributes));
+        ++clauses;
+        packages.clear();
+        include.clear();
+        exclude.clear();
+        attributes.clear();
+        accumulated = 0;
+    }
+
+    /**
+     * Mirrors {@code Pattern.compile(",").split(value)} followed by trimming of the parts: the trailing empty parts
+     * are dropped unless there is no comma at all.
+     */
+    private void splitAndTrim(List<String> output) {
+        int end = accumulated;
+        while (end > 0 && accumulator[end - 1] == ',') {
+            --end;
+        }
+
+        if (end == accumulated && indexOfComma(0, end) < 0) {
+            output.add(trimmed(0, end));
+            return;
+        }
+
+        int start = 0;
+        for (int comma = indexOfComma(0, end); comma >= 0; comma = indexOfComma(start, end)) {
+            output.add(trimmed(start, comma));
+            start = comma + 1;
+        }
+        if (end > 0) {
+            output.add(trimmed(start, end));
+        }
+    }
+
+    private int indexOfComma(int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (accumulator[i] == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String trimmed(int from, int to) {
+        while (from < to && (accumulator[from] & 0xFF) <= ' ') {
+            ++from;
+        }
+        while (to > from && (accumulator[to - 1] & 0xFF) <= ' ') {
+            --to;
+        }
+        return accumulatedString(from, to);
+    }
+
+    /**
+     * @return the index of the first occurrence of either of the bytes or {@code to} if there is none
+     */
+    private static int indexOf(byte[] bytes, int from, int to, byte a, byte b) {
+        for (int i = from; i < to; ++i) {
+            byte c = bytes[i];
+            if (c == a || c == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return the index of the first occurrence of any of the bytes or {@code to} if there is none
+     */
+    private static int indexOf(byte[] bytes, int from, int to, byte a, byte b, byte c) {
+        for (int i = from; i < to; ++i) {
+            byte d = bytes[i];
+            if (d == a || d == b || d == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int sequenceLength(byte lead) {
+        int b = lead & 0xFF;
+        if (b >= 0xF0) {
+            return 4;
+        } else if (b >= 0xE0) {
+            return 3;
+        } else if (b >= 0xC0) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    /**
+     * @return the code point of the UTF-8 sequence starting at the given position or -1 if the sequence is malformed
+     */
+    private static int decode(byte[] bytes, int pos, int limit) {
+        int lead = bytes[pos] & 0xFF;
+        int length = sequenceLength(bytes[pos]);
+        if (length == 1 || lead > 0xF4 || pos + length > limit) {
+            return -1;
+        }
+
+        int cp = lead & (0xFF >> (length + 1));
+        for (int i = 1; i < length; ++i) {
+            int b = bytes[pos + i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return -1;
+            }
+            cp = (cp << 6) | (b & 0x3F);
+        }
+
+        return cp;
+    }
+
+    private static IllegalArgumentException error(byte[] value, int length, int index) {
+        return new IllegalArgumentException("Could not parse the Export-Package directive. Errored on byte index "
+                + index + " of directive:\n" + new String(value, 0, length, StandardCharsets.UTF_8));
+    }
+}
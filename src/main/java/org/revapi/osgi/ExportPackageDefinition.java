@@ -1,71 +1,140 @@
 package org.revapi.osgi;
 
-import org.revapi.Element;
-import org.revapi.java.spi.JavaTypeElement;
+import static java.util.Collections.emptyMap;
 
-import javax.lang.model.element.Name;
-import javax.lang.model.element.PackageElement;
-import javax.lang.model.element.TypeElement;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.regex.Pattern;
-
-import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toSet;
 
+/**
+ * A single clause of the Export-Package header. The names and globs are kept in sorted, deduplicated arrays of interned
+ * strings, which is both the most compact representation and a canonical one, so that comparing the definitions
+ * doesn't allocate. The attributes of the clause are kept the same way, as an array of names and values sorted by the
+ * names.
+ */
 final class ExportPackageDefinition {
-    private final Set<String> packageNames;
-    private final Set<Pattern> includes;
-    private final Set<Pattern> excludes;
+    private static final String[] NO_NAMES = new String[0];
+
+    private final String[] packageNames;
+    private final String[] includes;
+    private final String[] excludes;
+    private final String[] attributes;
+    private final ClassNameMatcher includeMatcher;
+    private final ClassNameMatcher excludeMatcher;
     private final int hashCode;
 
-    public ExportPackageDefinition(Collection<String> packageNames, Collection<Pattern> includes, Collection<Pattern> excludes) {
-        this.packageNames = Collections.unmodifiableSet(new HashSet<>(packageNames));
-        this.includes = Collections.unmodifiableSet(new HashSet<>(includes));
-        this.excludes = Collections.unmodifiableSet(new HashSet<>(excludes));
+    public ExportPackageDefinition(Collection<String> packageNames, Collection<String> includes, Collection<String> excludes) {
+        this(packageNames, includes, excludes, emptyMap());
+    }
+
+    public ExportPackageDefinition(Collection<String> packageNames, Collection<String> includes,
+            Collection<String> excludes, Map<String, String> attributes) {
+        this.packageNames = canonical(packageNames);
+        this.includes = canonical(includes);
+        this.excludes = canonical(excludes);
+        this.attributes = canonical(attributes);
+        this.includeMatcher = ClassNameMatcher.compile(Arrays.asList(this.includes));
+        this.excludeMatcher = ClassNameMatcher.compile(Arrays.asList(this.excludes));
 
-        int hash = packageNames.stream().sorted().collect(toList()).hashCode();
-        hash = 31 * hash + includes.stream().map(Pattern::pattern).sorted().collect(toList()).hashCode();
-        hash = 31 * hash + excludes.stream().map(Pattern::pattern).sorted().collect(toList()).hashCode();
+        int hash = Arrays.hashCode(this.packageNames);
+        hash = 31 * hash + Arrays.hashCode(this.includes);
+        hash = 31 * hash + Arrays.hashCode(this.excludes);
+        hash = 31 * hash + Arrays.hashCode(this.attributes);
         this.hashCode = hash;
     }
 
-    public Set<String> getPackageNames() {
-        return packageNames;
-    }
+    private static String[] canonical(Collection<String> names) {
+        if (names.isEmpty()) {
+            return NO_NAMES;
+        }
 
-    public Set<Pattern> getIncludes() {
-        return includes;
-    }
+        String[] ret = names.toArray(new String[names.size()]);
+        Arrays.sort(ret);
 
-    public Set<Pattern> getExcludes() {
-        return excludes;
+        int size = 0;
+        for (String name : ret) {
+            if (size == 0 || !ret[size - 1].equals(name)) {
+                ret[size++] = name.intern();
+            }
+        }
+
+        return size == ret.length ? ret : Arrays.copyOf(ret, size);
     }
 
-    public boolean exports(Element element) {
-        if (!(element instanceof JavaTypeElement)) {
-            return true;
+    private static String[] canonical(Map<String, String> attributes) {
+        if (attributes.isEmpty()) {
+            return NO_NAMES;
         }
 
-        JavaTypeElement model = (JavaTypeElement) element;
-        TypeElement type = model.getDeclaringElement();
+        String[] names = attributes.keySet().toArray(new String[attributes.size()]);
+        Arrays.sort(names);
 
-        PackageElement packageOf = model.getTypeEnvironment().getElementUtils().getPackageOf(type);
-        if (packageOf == null) {
-            return false;
+        String[] ret = new String[names.length * 2];
+        for (int i = 0; i < names.length; ++i) {
+            ret[2 * i] = names[i].intern();
+            ret[2 * i + 1] = attributes.get(names[i]).intern();
         }
-        Name packageName = packageOf.getQualifiedName();
-        Name className = type.getSimpleName();
 
-        boolean packageMatches = packageNames.stream().anyMatch(p -> p.contentEquals(packageName));
-        if (!packageMatches) {
-            return false;
+        return ret;
+    }
+
+    public Set<String> getPackageNames() {
+        return new ArraySet(packageNames);
+    }
+
+    /**
+     * @return the globs of the classes included by this definition
+     */
+    public Set<String> getIncludes() {
+        return new ArraySet(includes);
+    }
+
+    /**
+     * @return the globs of the classes excluded by this definition
+     */
+    public Set<String> getExcludes() {
+        return new ArraySet(excludes);
+    }
+
+    /**
+     * @return the attributes of the clause, like the version of the packages
+     */
+    public Map<String, String> getAttributes() {
+        return new ArrayMap(attributes);
+    }
+
+    /**
+     * @return the value of the version attribute or null if the clause doesn't specify it
+     */
+    public String getVersion() {
+        for (int i = 0; i < attributes.length; i += 2) {
+            if ("version".equals(attributes[i])) {
+                return attributes[i + 1];
+            }
         }
+        return null;
+    }
 
-        boolean included = includes.isEmpty() || includes.stream().anyMatch(p -> p.matcher(className).matches());
-        boolean excluded = !excludes.isEmpty() && excludes.stream().anyMatch(p -> p.matcher(className).matches());
+    /**
+     * @return this definition with the attributes left out, or this definition if it has no attributes
+     */
+    ExportPackageDefinition withoutAttributes() {
+        return attributes.length == 0 ? this
+                : new ExportPackageDefinition(getPackageNames(), getIncludes(), getExcludes());
+    }
+
+    public boolean hasClassFilters() {
+        return includes.length != 0 || excludes.length != 0;
+    }
+
+    public boolean exportsClass(String className) {
+        boolean included = includes.length == 0 || includeMatcher.matches(className);
+        boolean excluded = excludeMatcher.matches(className);
 
         return included && !excluded;
     }
@@ -77,19 +146,9 @@ final class ExportPackageDefinition {
 
         ExportPackageDefinition that = (ExportPackageDefinition) o;
 
-        if (!packageNames.equals(that.packageNames)) return false;
-
-        Set<String> thisIncludes = includes.stream().map(Pattern::pattern).collect(toSet());
-        Set<String> thatIncludes = that.includes.stream().map(Pattern::pattern).collect(toSet());
-
-        if (!thisIncludes.equals(thatIncludes)) {
-            return false;
-        }
-
-        Set<String> thisExcludes = excludes.stream().map(Pattern::pattern).collect(toSet());
-        Set<String> thatExcludes = that.excludes.stream().map(Pattern::pattern).collect(toSet());
-
-        return thisExcludes.equals(thatExcludes);
+        return hashCode == that.hashCode && sameNames(packageNames, that.packageNames)
+                && sameNames(includes, that.includes) && sameNames(excludes, that.excludes)
+                && sameNames(attributes, that.attributes);
     }
 
     @Override
@@ -100,9 +159,111 @@ final class ExportPackageDefinition {
     @Override
     public String toString() {
         return "ExportPackageDefinition{" +
-                "packageNames=" + packageNames +
-                ", includes=" + includes +
-                ", excludes=" + excludes +
+                "packageNames=" + Arrays.toString(packageNames) +
+                ", includes=" + Arrays.toString(includes) +
+                ", excludes=" + Arrays.toString(excludes) +
+                ", attributes=" + getAttributes() +
                 '}';
     }
+
+    /**
+     * The names are interned, so they only need to be compared by identity.
+     */
+    private static boolean sameNames(String[] a, String[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * A read-only view of an array of alternating names and values sorted by the names.
+     */
+    private static final class ArrayMap extends AbstractMap<String, String> {
+        private final String[] entries;
+
+        ArrayMap(String[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < entries.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= entries.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> ret = new SimpleImmutableEntry<>(entries[next], entries[next + 1]);
+                            next += 2;
+                            return ret;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return entries.length / 2;
+                }
+            };
+        }
+    }
+
+    /**
+     * A read-only view of a sorted array of names.
+     */
+    private static final class ArraySet extends AbstractSet<String> {
+        private final String[] names;
+
+        ArraySet(String[] names) {
+            this.names = names;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && Arrays.binarySearch(names, o) >= 0;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < names.length;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= names.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return names[next++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return names.length;
+        }
+    }
 }
@@ -3,10 +3,11 @@ package org.revapi.osgi;
 import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 final class ExportPackageEntryParser {
@@ -16,8 +17,17 @@ final class ExportPackageEntryParser {
         throw new AssertionError();
     }
 
-    static void parse(String directive, Set<ExportPackageDefinition> packages) {
-        ParserState.parsePackage(directive, packages);
+    /**
+     * @return the number of the clauses of the header, including the ones equal to the definitions already in the
+     * output
+     */
+    static int parse(String directive, Set<ExportPackageDefinition> packages) {
+        Object event = FilterEvents.startHeaderParse();
+
+        int clauses = ParserState.parsePackage(directive, packages);
+
+        FilterEvents.endHeaderParse(event, directive == null ? 0 : directive.length(), clauses);
+        return clauses;
     }
 
     private enum ParserState {
@@ -55,6 +65,8 @@ final class ExportPackageEntryParser {
 //        include,exclude
 //        which are comma separated lists of class name patterns where the only supported special char is
 //        '*' which is equal to regex '.*'
+//
+//        AND IN ALL THE ATTRIBUTES (e.g. version), which are kept with the export they belong to
         EXPORT {
             @Override
             protected ParserState next(char c, Context ctx) {
@@ -90,9 +102,9 @@ final class ExportPackageEntryParser {
                     case ':':
                         return MAYBE_DIRECTIVE_VALUE;
                     case '=':
-                        //so this is not a package name after all, it is an attribute.. discard what we have
-                        ctx.clearAccumulator();
-                        return SKIP_PARAMETER;
+                        //so this is not a package name after all, it is an attribute
+                        ctx.attributeNameDone();
+                        return ATTRIBUTE_VALUE;
                     default:
                         if (Character.isJavaIdentifierPart(c)) {
                             ctx.accumulate(c);
@@ -116,8 +128,8 @@ final class ExportPackageEntryParser {
                     case ':':
                         return MAYBE_DIRECTIVE_VALUE;
                     case '=':
-                        ctx.clearAccumulator();
-                        return SKIP_PARAMETER;
+                        ctx.attributeNameDone();
+                        return ATTRIBUTE_VALUE;
                     case ',':
                         ctx.exportDone();
                         return EXPORT;
@@ -216,6 +228,7 @@ final class ExportPackageEntryParser {
                     case ';':
                         return PARAMETER;
                     case ',':
+                        ctx.exportDone();
                         return EXPORT;
                     default:
                         return ERROR;
@@ -240,49 +253,61 @@ final class ExportPackageEntryParser {
                 ctx.exportDone();
             }
         },
-        SKIP_PARAMETER {
+        ATTRIBUTE_VALUE {
             @Override
             protected ParserState next(char c, Context ctx) {
                 switch (c) {
                     case ';':
+                        ctx.attributeValueDone();
                         return PARAMETER;
+                    case ',':
+                        ctx.attributeValueDone();
+                        ctx.exportDone();
+                        return EXPORT;
                     case '"':
-                        return SKIP_PARAMETER_IN_QUOTES;
+                        return ATTRIBUTE_VALUE_IN_QUOTES;
                     default:
-                        return SKIP_PARAMETER;
+                        ctx.accumulate(c);
+                        return ATTRIBUTE_VALUE;
                 }
             }
 
             @Override
             protected void finalize(Context ctx) {
+                ctx.attributeValueDone();
                 ctx.exportDone();
             }
         },
-        SKIP_PARAMETER_IN_QUOTES {
+        ATTRIBUTE_VALUE_IN_QUOTES {
             @Override
             protected ParserState next(char c, Context ctx) {
                 switch (c) {
                     case '\\':
-                        return SKIP_IN_QUOTES_AFTER_ESCAPE;
+                        return ATTRIBUTE_VALUE_IN_QUOTES_ESCAPE;
                     case '"':
+                        ctx.attributeValueDone();
                         return EXPECT_DIRECTIVE_VALUE_END;
                     default:
-                        return SKIP_PARAMETER_IN_QUOTES;
+                        ctx.accumulate(c);
+                        return ATTRIBUTE_VALUE_IN_QUOTES;
                 }
             }
 
             @Override
             protected void finalize(Context ctx) {
+                ctx.exportDone();
             }
         },
-        SKIP_IN_QUOTES_AFTER_ESCAPE {
+        ATTRIBUTE_VALUE_IN_QUOTES_ESCAPE {
             @Override
             protected ParserState next(char c, Context ctx) {
-                return SKIP_PARAMETER_IN_QUOTES;
+                ctx.accumulate(c);
+                return ATTRIBUTE_VALUE_IN_QUOTES;
             }
 
             @Override
             protected void finalize(Context ctx) {
+                ctx.exportDone();
             }
         },
         ERROR {
@@ -300,7 +325,7 @@ final class ExportPackageEntryParser {
 
         protected abstract void finalize(Context ctx);
 
-        static void parsePackage(String directive, Set<ExportPackageDefinition> output) {
+        static int parsePackage(String directive, Set<ExportPackageDefinition> output) {
             Context ctx = new Context(output);
             ParserState state = EXPORT;
             if (directive != null) {
@@ -314,6 +339,7 @@ final class ExportPackageEntryParser {
                 }
             }
             state.finalize(ctx);
+            return ctx.clauses;
         }
 
         private static final class Context {
@@ -325,6 +351,9 @@ final class ExportPackageEntryParser {
             List<String> packages = new ArrayList<>(2);
             List<String> include = new ArrayList<>(2);
             List<String> exclude = new ArrayList<>(2);
+            Map<String, String> attributes = new LinkedHashMap<>(2);
+            String attributeName;
+            int clauses;
 
             Context(Set<ExportPackageDefinition> output) {
                 this.output = output;
@@ -351,6 +380,19 @@ final class ExportPackageEntryParser {
                 }
             }
 
+            void attributeNameDone() {
+                attributeName = accumulator.toString().trim();
+                clearAccumulator();
+            }
+
+            void attributeValueDone() {
+                if (attributeName != null) {
+                    attributes.put(attributeName, accumulator.toString().trim());
+                    attributeName = null;
+                }
+                clearAccumulator();
+            }
+
             void packageDone() {
                 packages.add(accumulator.toString());
                 clearAccumulator();
@@ -368,24 +410,18 @@ final class ExportPackageEntryParser {
             }
 
             void exportDone() {
-                output.add(new ExportPackageDefinition(packages, toPatterns(include), toPatterns(exclude)));
+                output.add(new ExportPackageDefinition(packages, include, exclude, attributes));
+                ++clauses;
                 packages.clear();
                 include.clear();
                 exclude.clear();
+                attributes.clear();
                 clearAccumulator();
             }
 
             private List<String> splitAndTrim(String str) {
                 return Stream.of(COMMA.split(str)).map(String::trim).collect(toList());
             }
-
-            private Pattern toPattern(String classFilter) {
-                return Pattern.compile(classFilter.replace("*", ".*"));
-            }
-
-            private Set<Pattern> toPatterns(List<String> classFilters) {
-                return classFilters.stream().map(this::toPattern).collect(Collectors.toSet());
-            }
         }
     }
 }
@@ -1,32 +1,63 @@
 package org.revapi.osgi;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.function.Function;
-import java.util.jar.JarInputStream;
-import java.util.jar.Manifest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
 
 import org.revapi.API;
 import org.revapi.AnalysisContext;
-import org.revapi.Archive;
 import org.revapi.Element;
 import org.revapi.ElementFilter;
+import org.revapi.ElementForest;
 import org.revapi.java.spi.JavaTypeElement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Filters out the types that are not exported by the OSGi bundles they come from.
+ *
+ * <p>Once {@link #initialize(AnalysisContext)} returns, {@link #applies(Element)} and {@link #shouldDescendInto(Object)}
+ * can be called concurrently from any number of threads. The configuration and the exports are kept in an immutable
+ * snapshot published by {@code initialize}; the lookups don't take any locks apart from the one-time reading of
+ * the archives of each API.
+ *
+ * <p>The types of large forests can also be classified all at once using {@link #evaluate(ElementForest)}, after
+ * which {@code applies} and {@code shouldDescendInto} just look up the decisions on these types.
+ */
 public final class ExportPackageFilter implements ElementFilter {
-
     private static final Logger LOG = LoggerFactory.getLogger(ExportPackageFilter.class);
 
-    private Map<API, Set<ExportPackageDefinition>> exportedPackages;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
     public void close() throws Exception {
+        Snapshot snapshot = this.snapshot;
+        if (!snapshot.metrics.isEnabled()) {
+            return;
+        }
 
+        LOG.info(snapshot.metrics.summary());
+
+        if (snapshot.metricsReportFile != null) {
+            try {
+                snapshot.metrics.writeTo(snapshot.metricsReportFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to write the metrics to " + snapshot.metricsReportFile + ".", e);
+            }
+        }
     }
 
     public String getExtensionId() {
@@ -34,20 +65,149 @@ public final class ExportPackageFilter implements ElementFilter {
     }
 
     public Reader getJSONSchema() {
-        return null;
+        return new InputStreamReader(getClass().getResourceAsStream("/META-INF/revapi-osgi-config-schema.json"),
+                StandardCharsets.UTF_8);
     }
 
     public void initialize(AnalysisContext analysisContext) {
-        exportedPackages = new HashMap<>();
-        Function<API, Set<ExportPackageDefinition>> getExportedPackages = api -> {
-            Set<ExportPackageDefinition> exportedPackages = new HashSet<>();
-            api.getArchives().forEach(a -> addExportedPackages(a, exportedPackages));
-            return exportedPackages;
+        FilterConfiguration configuration = FilterConfiguration.parse(analysisContext.getConfiguration());
+
+        DiskDefinitionCache diskCache = configuration.getCacheDirectory() == null
+                ? null
+                : new DiskDefinitionCache(configuration.getCacheDirectory(), configuration.getCacheMaxSize());
+
+        SharedExportCache sharedCache = null;
+        if (configuration.getSharedCacheSize() > 0) {
+            sharedCache = SharedExportCache.INSTANCE;
+            sharedCache.setMaxEntries(configuration.getSharedCacheSize());
+        }
+
+        FilterMetrics metrics = configuration.isMetricsEnabled() ? new FilterMetrics(true) : FilterMetrics.DISABLED;
+
+        ExportReader reader = new ExportReader(configuration.getParallelism(), sharedCache, diskCache, metrics,
+                configuration.getModuleExports());
+
+        // the archives of both APIs are read together once the filter is first consulted for an element
+        Map<API, ApiExports> exports = ApiExports.of(Arrays.asList(analysisContext.getOldApi(),
+                analysisContext.getNewApi()), reader, configuration.getPackagePatterns(), metrics);
+
+        snapshot = new Snapshot(exports, metrics, configuration.getMetricsReportFile(),
+                configuration.getParallelism(), Collections.emptyMap());
+    }
+
+    /**
+     * Classifies all the types of the forest in parallel. Must be called after {@link #initialize(AnalysisContext)}.
+     *
+     * <p>The forest is classified level by level, so that, like in the analysis itself, the types nested in the types
+     * from the packages that are not exported are never reached. All the levels share one pool and the decisions are
+     * published together once the whole forest is classified.
+     */
+    public void evaluate(ElementForest forest) {
+        Snapshot snapshot = this.snapshot;
+        Map<JavaTypeElement, Decision> decided = new IdentityHashMap<>();
+
+        List<JavaTypeElement> level = new ArrayList<>();
+        addTypes(forest.getRoots(), level);
+
+        ForkJoinPool pool = null;
+        try {
+            while (!level.isEmpty()) {
+                if (pool == null && isParallel(snapshot, level)) {
+                    pool = new ForkJoinPool(snapshot.parallelism);
+                }
+
+                Decision[] decisions = decide(snapshot, level, pool);
+
+                List<JavaTypeElement> next = new ArrayList<>();
+                for (int i = 0; i < decisions.length; ++i) {
+                    JavaTypeElement type = level.get(i);
+                    decided.put(type, decisions[i]);
+                    if (decisions[i].descend) {
+                        addTypes(type.getChildren(), next);
+                    }
+                }
+                level = next;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
 
-        };
+        publish(snapshot, decided);
+    }
+
+    /**
+     * Classifies the types in parallel. Must be called after {@link #initialize(AnalysisContext)}.
+     *
+     * <p>Can be called concurrently, the decisions of all the calls are kept. If the filter is initialized again in
+     * the meantime, the decisions are dropped, because they were made for the previous analysis.
+     */
+    public void evaluate(Collection<? extends JavaTypeElement> types) {
+        Snapshot snapshot = this.snapshot;
+        List<JavaTypeElement> list = new ArrayList<>(types);
+
+        Decision[] decisions;
+        if (isParallel(snapshot, list)) {
+            ForkJoinPool pool = new ForkJoinPool(snapshot.parallelism);
+            try {
+                decisions = decide(snapshot, list, pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            decisions = decide(snapshot, list, null);
+        }
+
+        Map<JavaTypeElement, Decision> decided = new IdentityHashMap<>(list.size());
+        for (int i = 0; i < decisions.length; ++i) {
+            decided.put(list.get(i), decisions[i]);
+        }
+
+        publish(snapshot, decided);
+    }
+
+    private static boolean isParallel(Snapshot snapshot, List<JavaTypeElement> types) {
+        return types.size() > Evaluation.THRESHOLD && snapshot.parallelism != 1;
+    }
 
-        exportedPackages.computeIfAbsent(analysisContext.getOldApi(), getExportedPackages);
-        exportedPackages.computeIfAbsent(analysisContext.getNewApi(), getExportedPackages);
+    /**
+     * @param pool the pool to decide in or null to decide in the calling thread
+     */
+    private static Decision[] decide(Snapshot snapshot, List<JavaTypeElement> types, ForkJoinPool pool) {
+        Decision[] decisions = new Decision[types.size()];
+        Evaluation evaluation = new Evaluation(snapshot, types, decisions, 0, types.size());
+        if (pool == null || types.size() <= Evaluation.THRESHOLD) {
+            evaluation.compute();
+        } else {
+            pool.invoke(evaluation);
+        }
+        return decisions;
+    }
+
+    private synchronized void publish(Snapshot snapshot, Map<JavaTypeElement, Decision> decided) {
+        // merged into the current snapshot, which might already have the decisions of a concurrent evaluation
+        Snapshot current = this.snapshot;
+        if (current.exports != snapshot.exports || decided.isEmpty()) {
+            return;
+        }
+
+        if (current.decisions.isEmpty()) {
+            this.snapshot = current.withDecisions(decided);
+        } else {
+            Map<JavaTypeElement, Decision> merged = new IdentityHashMap<>(current.decisions.size() + decided.size());
+            merged.putAll(current.decisions);
+            merged.putAll(decided);
+            this.snapshot = current.withDecisions(merged);
+        }
+    }
+
+    private static void addTypes(Collection<? extends Element> elements, List<JavaTypeElement> types) {
+        for (Element element : elements) {
+            if (element instanceof JavaTypeElement) {
+                types.add((JavaTypeElement) element);
+            }
+        }
     }
 
     public boolean applies(Element element) {
@@ -55,31 +215,165 @@ public final class ExportPackageFilter implements ElementFilter {
             return true;
         }
 
-        Set<ExportPackageDefinition> exportDefinitions = exportedPackages.get(element.getApi());
-        if (exportDefinitions == null || exportDefinitions.isEmpty()) {
-            return true;
+        JavaTypeElement model = (JavaTypeElement) element;
+        Snapshot snapshot = this.snapshot;
+
+        Decision decision = snapshot.decisions.get(model);
+        if (decision == null) {
+            decision = decide(snapshot, model);
         }
 
-        return exportDefinitions.stream().anyMatch(d -> d.exports(element));
+        boolean ret = decision.applies;
+        snapshot.metrics.applied(ret);
+        FilterEvents.applied(ret);
+        return ret;
     }
 
+    /**
+     * Nothing below a type from a package that is not exported can be exported, so such subtrees are not walked at
+     * all. The types rejected by the class filters are still descended into, because their nested classes are matched
+     * by the filters separately.
+     */
     public boolean shouldDescendInto(Object element) {
-        return true;
+        if (!(element instanceof JavaTypeElement)) {
+            return true;
+        }
+
+        JavaTypeElement model = (JavaTypeElement) element;
+        Snapshot snapshot = this.snapshot;
+
+        Decision decision = snapshot.decisions.get(model);
+        if (decision != null) {
+            return decision.descend;
+        }
+
+        return verdictOf(snapshot, model, model.getDeclaringElement()) != PackageVerdict.NOT_EXPORTED;
     }
 
-    private void addExportedPackages(Archive archive, Set<ExportPackageDefinition> exportedPackages) {
-        try (JarInputStream jar = new JarInputStream(archive.openStream())) {
-            Manifest manifest = jar.getManifest();
-            if (manifest == null) {
-                return;
-            }
+    private static Decision decide(Snapshot snapshot, JavaTypeElement model) {
+        TypeElement type = model.getDeclaringElement();
+        PackageVerdict verdict = verdictOf(snapshot, model, type);
+
+        if (verdict == null) {
+            return Decision.ACCEPTED;
+        } else if (verdict == PackageVerdict.NOT_EXPORTED) {
+            return Decision.NOT_EXPORTED;
+        }
 
-            String directive = manifest.getMainAttributes().getValue("Export-Package");
-            if (directive != null) {
-                ExportPackageEntryParser.parse(directive, exportedPackages);
+        boolean exported;
+        if (snapshot.metrics.isEnabled() && verdict.hasClassFilters()) {
+            long start = snapshot.metrics.startTimer();
+            exported = verdict.exports(type);
+            snapshot.metrics.classFilterMatched(snapshot.metrics.elapsed(start));
+        } else {
+            exported = verdict.exports(type);
+        }
+
+        return exported ? Decision.ACCEPTED : Decision.REJECTED;
+    }
+
+    /**
+     * @return the verdict on the package of the type or null if the archive of the type doesn't export anything
+     */
+    private static PackageVerdict verdictOf(Snapshot snapshot, JavaTypeElement model, TypeElement type) {
+        ApiExports exports = snapshot.exports.get(model.getApi());
+        if (exports == null) {
+            return null;
+        }
+
+        VerdictCache index = exports.of(model.getArchive());
+        if (index == null) {
+            return null;
+        }
+
+        PackageElement packageOf = model.getTypeEnvironment().getElementUtils().getPackageOf(type);
+        if (packageOf == null) {
+            return PackageVerdict.NOT_EXPORTED;
+        }
+
+        return index.verdictOf(packageOf);
+    }
+
+    private enum Decision {
+        ACCEPTED(true, true),
+
+        /**
+         * Rejected by the class filters, the nested classes still need to be matched.
+         */
+        REJECTED(false, true),
+
+        NOT_EXPORTED(false, false);
+
+        final boolean applies;
+        final boolean descend;
+
+        Decision(boolean applies, boolean descend) {
+            this.applies = applies;
+            this.descend = descend;
+        }
+    }
+
+    /**
+     * Decides on a range of the types, splitting it in halves until small enough. Each task writes a distinct range of
+     * the decisions, which are visible to the caller once the root task completes.
+     */
+    private static final class Evaluation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        static final int THRESHOLD = 512;
+
+        private final Snapshot snapshot;
+        private final List<JavaTypeElement> types;
+        private final Decision[] decisions;
+        private final int from;
+        private final int to;
+
+        Evaluation(Snapshot snapshot, List<JavaTypeElement> types, Decision[] decisions, int from, int to) {
+            this.snapshot = snapshot;
+            this.types = types;
+            this.decisions = decisions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; ++i) {
+                    decisions[i] = decide(snapshot, types.get(i));
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Evaluation(snapshot, types, decisions, from, middle),
+                        new Evaluation(snapshot, types, decisions, middle, to));
             }
-        } catch (IOException e) {
-            LOG.debug("Failed to open the archive " + archive + " as a jar.", e);
+        }
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), FilterMetrics.DISABLED, null, 1,
+                Collections.emptyMap());
+
+        // never modified after the construction, so it is safe to read concurrently once published
+        final Map<API, ApiExports> exports;
+        final FilterMetrics metrics;
+        final Path metricsReportFile;
+        final int parallelism;
+
+        // the decisions on the types classified by evaluate(), keyed by identity
+        final Map<JavaTypeElement, Decision> decisions;
+
+        Snapshot(Map<API, ApiExports> exports, FilterMetrics metrics, Path metricsReportFile, int parallelism,
+                Map<JavaTypeElement, Decision> decisions) {
+            this.exports = exports;
+            this.metrics = metrics;
+            this.metricsReportFile = metricsReportFile;
+            this.parallelism = parallelism;
+            this.decisions = decisions;
+        }
+
+        Snapshot withDecisions(Map<JavaTypeElement, Decision> decisions) {
+            return new Snapshot(exports, metrics, metricsReportFile, parallelism, decisions);
         }
     }
 }
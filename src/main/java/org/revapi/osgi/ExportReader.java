@@ -0,0 +1,385 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableSet;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+import org.revapi.Archive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the Export-Package definitions of archives, optionally processing several archives in parallel. The exports of
+ * the module descriptors can optionally be used for the archives that are not bundles.
+ */
+final class ExportReader {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportReader.class);
+
+    private final int parallelism;
+    private final SharedExportCache sharedCache;
+    private final DiskDefinitionCache diskCache;
+    private final FilterMetrics metrics;
+    private final ModuleDescriptorReader.Exports moduleExports;
+
+    // the old and new versions of an archive usually export the same packages, so their exports are only parsed and
+    // indexed once. The parsed headers don't have the identity of any bundle yet.
+    private final ConcurrentMap<ByteBuffer, BundleHeaders> parsedByHeader = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BundleHeaders, ExportIndex> indicesByHeaders = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelism the maximum number of archives to read in parallel
+     * @param sharedCache the in-memory cache of the indices or null if the indices should not be cached
+     * @param diskCache the persistent cache of the definitions or null if the definitions should not be cached
+     */
+    ExportReader(int parallelism, SharedExportCache sharedCache, DiskDefinitionCache diskCache) {
+        this(parallelism, sharedCache, diskCache, FilterMetrics.DISABLED);
+    }
+
+    /**
+     * @param metrics the metrics to record the reading of the archives in
+     */
+    ExportReader(int parallelism, SharedExportCache sharedCache, DiskDefinitionCache diskCache,
+            FilterMetrics metrics) {
+        this(parallelism, sharedCache, diskCache, metrics, ModuleDescriptorReader.Exports.NONE);
+    }
+
+    /**
+     * @param moduleExports which exports of the module descriptors to use for the archives without the Export-Package
+     * header
+     */
+    ExportReader(int parallelism, SharedExportCache sharedCache, DiskDefinitionCache diskCache,
+            FilterMetrics metrics, ModuleDescriptorReader.Exports moduleExports) {
+        this.parallelism = parallelism;
+        this.sharedCache = sharedCache;
+        this.diskCache = diskCache;
+        this.metrics = metrics;
+        this.moduleExports = moduleExports;
+    }
+
+    /**
+     * Reads the exports of all the archives. The result doesn't depend on the order in which the archives were
+     * processed.
+     */
+    Map<Archive, ExportIndex> readAll(List<? extends Archive> archives) {
+        return readGroups(singletonList(archives)).get(0);
+    }
+
+    /**
+     * Reads the exports of several groups of archives, e.g. the old and the new API, in a single parallel pass. The
+     * fragments are only attached to the hosts from the same group.
+     *
+     * @return the exports of the archives of each group, in the order of the groups
+     */
+    List<Map<Archive, ExportIndex>> readGroups(List<? extends List<? extends Archive>> groups) {
+        try {
+            // the embedded archives are exported by their bundles, which only need to be read once
+            List<Map<Archive, Archive>> bundlesByGroup = new ArrayList<>(groups.size());
+            Set<Archive> allBundles = new LinkedHashSet<>();
+            for (List<? extends Archive> archives : groups) {
+                Map<Archive, Archive> bundles = new HashMap<>();
+                for (Archive a : archives) {
+                    Archive bundle = a;
+                    while (bundle instanceof EmbeddedArchive) {
+                        bundle = ((EmbeddedArchive) bundle).getBundle();
+                    }
+                    bundles.put(a, bundle);
+                }
+                bundlesByGroup.add(bundles);
+                allBundles.addAll(bundles.values());
+            }
+
+            Map<Archive, ExportIndex> read = doReadAll(new ArrayList<>(allBundles));
+
+            List<Map<Archive, ExportIndex>> ret = new ArrayList<>(groups.size());
+            for (Map<Archive, Archive> bundles : bundlesByGroup) {
+                List<Archive> uniqueBundles = new ArrayList<>(new LinkedHashSet<>(bundles.values()));
+                Map<Archive, ExportIndex> indices = new HashMap<>();
+                uniqueBundles.forEach(b -> indices.put(b, read.get(b)));
+                attachFragments(uniqueBundles, indices);
+
+                Map<Archive, ExportIndex> group = new HashMap<>();
+                bundles.forEach((a, bundle) -> group.put(a, indices.get(bundle)));
+                ret.add(group);
+            }
+            return ret;
+        } finally {
+            if (diskCache != null) {
+                diskCache.evict();
+            }
+        }
+    }
+
+    /**
+     * The fragments are attached to their hosts at runtime and share their class loader, so the classes of the host and
+     * all of its fragments are exported by the union of their exports. The hosts are looked up by their symbolic names
+     * in a single pass over the archives, so the cost is linear in the number of archives. If several archives have
+     * the same symbolic name, the first one is the host.
+     */
+    private void attachFragments(List<Archive> archives, Map<Archive, ExportIndex> indices) {
+        Map<String, Archive> hostsByName = new HashMap<>();
+        Map<Archive, List<Archive>> fragmentsByHost = new LinkedHashMap<>();
+
+        for (Archive a : archives) {
+            BundleHeaders headers = indices.get(a).getHeaders();
+            if (headers.getSymbolicName() != null && !headers.isFragment()) {
+                hostsByName.putIfAbsent(headers.getSymbolicName(), a);
+            }
+        }
+
+        for (Archive a : archives) {
+            BundleHeaders headers = indices.get(a).getHeaders();
+            Archive host = headers.isFragment() ? hostsByName.get(headers.getFragmentHost()) : null;
+            if (host != null) {
+                fragmentsByHost.computeIfAbsent(host, __ -> new ArrayList<>()).add(a);
+            }
+        }
+
+        fragmentsByHost.forEach((host, fragments) -> {
+            BundleHeaders hostHeaders = indices.get(host).getHeaders();
+
+            Set<ExportPackageDefinition> exports = new HashSet<>(hostHeaders.getExports());
+            for (Archive fragment : fragments) {
+                exports.addAll(indices.get(fragment).getHeaders().getExports());
+            }
+
+            ExportIndex merged = index(new BundleHeaders(exports, hostHeaders.getSymbolicName(), null));
+            indices.put(host, merged);
+            fragments.forEach(f -> indices.put(f, merged));
+        });
+    }
+
+    private Map<Archive, ExportIndex> doReadAll(List<? extends Archive> archives) {
+        Map<Archive, ExportIndex> ret = new HashMap<>();
+
+        if (parallelism == 1 || archives.size() <= 1) {
+            archives.forEach(a -> ret.computeIfAbsent(a, this::read));
+            return ret;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, archives.size()), r -> {
+            Thread t = new Thread(r, "revapi-osgi-export-reader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            Map<Archive, Future<ExportIndex>> results = new LinkedHashMap<>();
+            archives.forEach(a -> results.computeIfAbsent(a, __ -> executor.submit(() -> read(a))));
+
+            for (Map.Entry<Archive, Future<ExportIndex>> e : results.entrySet()) {
+                ret.put(e.getKey(), e.getValue().get());
+            }
+
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the exports of the archives.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to read the exports of the archives.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    ExportIndex read(Archive archive) {
+        if (archive instanceof EmbeddedArchive) {
+            // the classes of the embedded jars are exported by the manifest of the bundle, not by their own
+            return read(((EmbeddedArchive) archive).getBundle());
+        }
+
+        Object event = FilterEvents.startManifestRead();
+        FilterMetrics.ArchiveRead stats = metrics.startArchiveRead(archive.getName());
+
+        ExportIndex index = read(archive, stats);
+
+        stats.packages = index.getPackageCount();
+        metrics.archiveRead(stats);
+        FilterEvents.endManifestRead(event, archive.getName(), stats.source.name(), stats.headerBytes, stats.packages);
+
+        return index;
+    }
+
+    private ExportIndex read(Archive archive, FilterMetrics.ArchiveRead stats) {
+        try {
+            if (sharedCache != null || diskCache != null) {
+                try (InputStream in = archive.openStream()) {
+                    if (in instanceof FileInputStream) {
+                        return read(ZipDirectory.read(((FileInputStream) in).getChannel()), archive, stats);
+                    }
+                } catch (ZipException e) {
+                    LOG.debug("Failed to read the central directory of " + archive + ". Will not cache its exports.",
+                            e);
+                }
+            }
+
+            return index(headers(ManifestReader.read(archive), () -> ModuleDescriptorReader.read(archive,
+                    moduleExports), stats));
+        } catch (IOException e) {
+            LOG.debug("Failed to open the archive " + archive + " as a jar.", e);
+            return ExportIndex.EMPTY;
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Failed to parse the Export-Package header of the archive " + archive + ".", e);
+            return ExportIndex.EMPTY;
+        }
+    }
+
+    private ExportIndex read(ZipDirectory zip, Archive archive, FilterMetrics.ArchiveRead stats) throws IOException {
+        // the exports of an archive depend on whether its module descriptor is used, so the cached entries must too
+        String cacheName = moduleExports == ModuleDescriptorReader.Exports.NONE
+                ? archive.getName()
+                : archive.getName() + "#module-exports=" + moduleExports.name().toLowerCase();
+        ArchiveFingerprint fingerprint = ArchiveFingerprint.of(cacheName, zip);
+
+        ExportIndex index = sharedCache == null ? null : sharedCache.get(fingerprint);
+        if (index != null) {
+            stats.source = FilterMetrics.Source.SHARED_CACHE;
+            return index;
+        }
+
+        BundleHeaders headers = diskCache == null ? null : diskCache.get(fingerprint);
+        if (headers == null) {
+            headers = headers(ManifestReader.read(zip), () -> ModuleDescriptorReader.read(zip, moduleExports), stats);
+            if (diskCache != null) {
+                diskCache.put(fingerprint, headers);
+            }
+        } else {
+            stats.source = FilterMetrics.Source.DISK_CACHE;
+            stats.definitions = headers.getExports().size();
+        }
+
+        index = index(headers);
+        if (sharedCache != null) {
+            sharedCache.put(fingerprint, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * The module descriptor is only consulted if enabled and if the manifest doesn't export anything. A module that
+     * doesn't export any package is treated as if it had no descriptor.
+     */
+    private BundleHeaders headers(byte[] manifestBytes, ModuleExportsSource moduleSource,
+            FilterMetrics.ArchiveRead stats) throws IOException {
+        BundleHeaders ret = parse(manifestBytes, stats).withIdentityOf(manifestBytes);
+        if (!ret.getExports().isEmpty() || moduleExports == ModuleDescriptorReader.Exports.NONE) {
+            return ret;
+        }
+
+        long start = metrics.startTimer();
+        List<String> packages = moduleSource.read();
+        if (packages == null || packages.isEmpty()) {
+            return ret;
+        }
+
+        stats.parseNanos = metrics.elapsed(start);
+        stats.source = FilterMetrics.Source.MODULE_DESCRIPTOR;
+        stats.definitions = 1;
+
+        ExportPackageDefinition definition = new ExportPackageDefinition(packages, emptyList(), emptyList());
+        return new BundleHeaders(singleton(definition), ret.getSymbolicName(), ret.getFragmentHost());
+    }
+
+    /**
+     * The same header is only parsed once. The header is identified by the digest of its unfolded value, so that it
+     * doesn't matter how the manifests fold it into lines. Sharing the parsed headers also shares the definitions
+     * without the attributes, which the indices are built from.
+     */
+    private BundleHeaders parse(byte[] manifestBytes, FilterMetrics.ArchiveRead stats) {
+        byte[] header = manifestBytes == null ? null : ExportPackageByteParser.findHeader(manifestBytes);
+        if (header == null) {
+            return BundleHeaders.NONE;
+        }
+
+        stats.headerBytes = header.length;
+
+        ByteBuffer digest = ByteBuffer.wrap(digest(header));
+        BundleHeaders ret = parsedByHeader.get(digest);
+        if (ret == null) {
+            long start = metrics.startTimer();
+
+            Set<ExportPackageDefinition> definitions = new HashSet<>();
+            ExportPackageByteParser.parseValue(header, header.length, definitions);
+            BundleHeaders parsed = new BundleHeaders(unmodifiableSet(definitions), null, null);
+
+            stats.parseNanos = metrics.elapsed(start);
+            stats.source = FilterMetrics.Source.PARSED;
+
+            ret = parsedByHeader.putIfAbsent(digest, parsed);
+            if (ret == null) {
+                ret = parsed;
+            }
+        } else {
+            stats.source = FilterMetrics.Source.DEDUPLICATED;
+        }
+
+        stats.definitions = ret.getExports().size();
+
+        return ret;
+    }
+
+    /**
+     * Differently written headers can still amount to the same definitions, so the index is shared by all the archives
+     * with equal definitions and identity. The attributes don't influence what is exported, so the index is shared
+     * also between the bundles that only differ in the versions of the packages.
+     */
+    private ExportIndex index(BundleHeaders headers) {
+        if (headers.isEmpty()) {
+            return ExportIndex.EMPTY;
+        }
+
+        headers = headers.withoutAttributes();
+
+        ExportIndex ret = indicesByHeaders.get(headers);
+        if (ret == null) {
+            ExportIndex index = ExportIndex.of(headers);
+            ret = indicesByHeaders.putIfAbsent(headers, index);
+            if (ret == null) {
+                ret = index;
+            }
+        }
+
+        return ret;
+    }
+
+    @FunctionalInterface
+    private interface ModuleExportsSource {
+        List<String> read() throws IOException;
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by the JVM.", e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.revapi.osgi;
+
+import java.util.Set;
+
+import org.revapi.API;
+import org.revapi.Archive;
+import org.revapi.Element;
+import org.revapi.simple.SimpleElement;
+
+/**
+ * A package exported by an archive as declared in its Export-Package header, together with the version and the class
+ * filters the header declares for it.
+ */
+final class ExportedPackageElement extends SimpleElement {
+    private final API api;
+    private final Archive archive;
+    private final String packageName;
+    private final ExportPackageDefinition definition;
+
+    ExportedPackageElement(API api, Archive archive, String packageName, ExportPackageDefinition definition) {
+        this.api = api;
+        this.archive = archive;
+        this.packageName = packageName;
+        this.definition = definition;
+    }
+
+    @Override
+    public API getApi() {
+        return api;
+    }
+
+    @Override
+    public Archive getArchive() {
+        return archive;
+    }
+
+    String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * @return the version of the package or null if the header doesn't declare it
+     */
+    String getVersion() {
+        return definition.getVersion();
+    }
+
+    Set<String> getIncludes() {
+        return definition.getIncludes();
+    }
+
+    Set<String> getExcludes() {
+        return definition.getExcludes();
+    }
+
+    @Override
+    public int compareTo(Element o) {
+        if (!(o instanceof ExportedPackageElement)) {
+            return getClass().getName().compareTo(o.getClass().getName());
+        }
+
+        return packageName.compareTo(((ExportedPackageElement) o).packageName);
+    }
+
+    @Override
+    public String getFullHumanReadableString() {
+        String version = getVersion();
+        return "exported package " + packageName + (version == null ? "" : ";version=" + version);
+    }
+
+    @Override
+    public String toString() {
+        return getFullHumanReadableString();
+    }
+}
@@ -0,0 +1,172 @@
+package org.revapi.osgi;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * The configuration of the {@link ExportPackageFilter} as described by {@code META-INF/revapi-osgi-config-schema.json}.
+ */
+final class FilterConfiguration {
+    private static final long DEFAULT_CACHE_MAX_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_SHARED_CACHE_SIZE = 0;
+
+    private final int parallelism;
+    private final Path cacheDirectory;
+    private final long cacheMaxSize;
+    private final int sharedCacheSize;
+    private final boolean metricsEnabled;
+    private final Path metricsReportFile;
+    private final ModuleDescriptorReader.Exports moduleExports;
+    private final PackagePatterns packagePatterns;
+
+    private FilterConfiguration(int parallelism, Path cacheDirectory, long cacheMaxSize, int sharedCacheSize,
+            boolean metricsEnabled, Path metricsReportFile, ModuleDescriptorReader.Exports moduleExports,
+            PackagePatterns packagePatterns) {
+        this.parallelism = parallelism;
+        this.cacheDirectory = cacheDirectory;
+        this.cacheMaxSize = cacheMaxSize;
+        this.sharedCacheSize = sharedCacheSize;
+        this.metricsEnabled = metricsEnabled;
+        this.metricsReportFile = metricsReportFile;
+        this.moduleExports = moduleExports;
+        this.packagePatterns = packagePatterns;
+    }
+
+    static FilterConfiguration parse(ModelNode configuration) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Path cacheDirectory = null;
+        long cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
+        int sharedCacheSize = DEFAULT_SHARED_CACHE_SIZE;
+        boolean metricsEnabled = false;
+        Path metricsReportFile = null;
+        ModuleDescriptorReader.Exports moduleExports = ModuleDescriptorReader.Exports.NONE;
+        PackagePatterns packagePatterns = PackagePatterns.NONE;
+
+        if (configuration != null && configuration.isDefined()) {
+            ModelNode node = configuration.get("parallelism");
+            if (node.isDefined()) {
+                parallelism = node.asInt();
+            }
+
+            ModelNode cache = configuration.get("cache");
+            if (cache.isDefined()) {
+                if (cache.get("directory").isDefined()) {
+                    cacheDirectory = Paths.get(cache.get("directory").asString());
+                }
+                if (cache.get("maxSize").isDefined()) {
+                    cacheMaxSize = cache.get("maxSize").asLong();
+                }
+                if (cache.get("inMemoryEntries").isDefined()) {
+                    sharedCacheSize = cache.get("inMemoryEntries").asInt();
+                }
+            }
+
+            ModelNode metrics = configuration.get("metrics");
+            if (metrics.isDefined()) {
+                if (metrics.get("enabled").isDefined()) {
+                    metricsEnabled = metrics.get("enabled").asBoolean();
+                }
+                if (metrics.get("reportFile").isDefined()) {
+                    metricsReportFile = Paths.get(metrics.get("reportFile").asString());
+                }
+            }
+
+            ModelNode module = configuration.get("moduleExports");
+            if (module.isDefined()) {
+                try {
+                    moduleExports = ModuleDescriptorReader.Exports.valueOf(module.asString().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("The moduleExports must be one of none, unqualified or all"
+                            + " but was " + module.asString() + ".");
+                }
+            }
+
+            ModelNode packages = configuration.get("packages");
+            if (packages.isDefined()) {
+                packagePatterns = parsePackagePatterns(packages);
+            }
+        }
+
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1 but was " + parallelism + ".");
+        }
+
+        return new FilterConfiguration(parallelism, cacheDirectory, cacheMaxSize, sharedCacheSize, metricsEnabled,
+                metricsReportFile, moduleExports, packagePatterns);
+    }
+
+    private static PackagePatterns parsePackagePatterns(ModelNode packages) {
+        PackagePatterns.Mode mode = PackagePatterns.Mode.AUGMENT;
+        if (packages.get("mode").isDefined()) {
+            try {
+                mode = PackagePatterns.Mode.valueOf(packages.get("mode").asString().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("The packages/mode must be one of augment, override or narrow"
+                        + " but was " + packages.get("mode").asString() + ".");
+            }
+        }
+
+        List<String> patterns = new ArrayList<>();
+        if (packages.get("patterns").isDefined()) {
+            for (ModelNode pattern : packages.get("patterns").asList()) {
+                patterns.add(pattern.asString());
+            }
+        }
+
+        return PackagePatterns.compile(patterns, mode);
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the directory to persist the parsed exports in or null if they should not be persisted
+     */
+    Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * @return the maximum size of the cache directory in bytes
+     */
+    long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    /**
+     * @return the maximum number of archives to keep the exports of in memory across analyses, 0 to disable
+     */
+    int getSharedCacheSize() {
+        return sharedCacheSize;
+    }
+
+    boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * @return the file to write the metrics to in the JSON format or null if they should only be logged
+     */
+    Path getMetricsReportFile() {
+        return metricsReportFile;
+    }
+
+    /**
+     * @return which exports of the module descriptors to use for the archives without the Export-Package header
+     */
+    ModuleDescriptorReader.Exports getModuleExports() {
+        return moduleExports;
+    }
+
+    /**
+     * @return the package patterns to apply on top of the exports of the archives
+     */
+    PackagePatterns getPackagePatterns() {
+        return packagePatterns;
+    }
+}
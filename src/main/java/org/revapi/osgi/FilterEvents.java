@@ -0,0 +1,32 @@
+package org.revapi.osgi;
+
+/**
+ * Hooks for the Java Flight Recorder events of the extension. This is the Java 8 version, which does nothing. On Java 11
+ * and later, the multi-release jar replaces it with a version that emits the events, see {@code src/main/java11}.
+ *
+ * <p>The "start" methods return a token that is passed to the corresponding "end" method, so that the callers don't
+ * need to know anything about the events.
+ */
+final class FilterEvents {
+
+    private FilterEvents() {
+        throw new AssertionError();
+    }
+
+    static Object startManifestRead() {
+        return null;
+    }
+
+    static void endManifestRead(Object token, String archiveName, String source, int headerBytes, int packages) {
+    }
+
+    static Object startHeaderParse() {
+        return null;
+    }
+
+    static void endHeaderParse(Object token, int headerBytes, int clauses) {
+    }
+
+    static void applied(boolean accepted) {
+    }
+}
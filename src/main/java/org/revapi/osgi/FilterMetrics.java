@@ -0,0 +1,212 @@
+package org.revapi.osgi;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Collects the statistics of a single run of the {@link ExportPackageFilter}. All the methods are safe to call
+ * concurrently. When disabled, nothing is recorded and the timers don't read the clock, so the instrumented code only
+ * pays for a field read and a branch.
+ */
+final class FilterMetrics {
+    static final FilterMetrics DISABLED = new FilterMetrics(false);
+
+    enum Source {
+        PARSED, DEDUPLICATED, SHARED_CACHE, DISK_CACHE, MODULE_DESCRIPTOR, NO_MANIFEST
+    }
+
+    private final boolean enabled;
+
+    private final Queue<ArchiveRead> archives = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder verdictCacheHits = new LongAdder();
+    private final LongAdder verdictCacheMisses = new LongAdder();
+    private final LongAdder classFilterMatches = new LongAdder();
+    private final LongAdder classFilterNanos = new LongAdder();
+
+    FilterMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the current time for measuring durations or 0 if the metrics are disabled
+     */
+    long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return the nanoseconds elapsed since the timer started or 0 if the metrics are disabled
+     */
+    long elapsed(long start) {
+        return enabled ? System.nanoTime() - start : 0;
+    }
+
+    /**
+     * Starts recording the reading of the exports of a single archive. The returned object is filled in by the reader
+     * and only added to the metrics by {@link #archiveRead(ArchiveRead)}.
+     */
+    ArchiveRead startArchiveRead(String archiveName) {
+        return new ArchiveRead(archiveName, startTimer());
+    }
+
+    void archiveRead(ArchiveRead read) {
+        if (enabled) {
+            read.totalNanos = elapsed(read.start);
+            archives.add(read);
+        }
+    }
+
+    void applied(boolean accepted) {
+        if (enabled) {
+            (accepted ? this.accepted : this.rejected).increment();
+        }
+    }
+
+    void verdictCacheHit(boolean hit) {
+        if (enabled) {
+            (hit ? verdictCacheHits : verdictCacheMisses).increment();
+        }
+    }
+
+    void classFilterMatched(long nanos) {
+        if (enabled) {
+            classFilterMatches.increment();
+            classFilterNanos.add(nanos);
+        }
+    }
+
+    ModelNode toModelNode() {
+        ModelNode ret = new ModelNode();
+
+        long readNanos = 0;
+        long parseNanos = 0;
+        long headerBytes = 0;
+        long definitions = 0;
+        long packages = 0;
+        int[] sources = new int[Source.values().length];
+
+        ModelNode archivesNode = ret.get("archives");
+        archivesNode.setEmptyList();
+        for (ArchiveRead a : archives) {
+            ModelNode node = archivesNode.add();
+            node.get("name").set(a.archiveName);
+            node.get("source").set(a.source.name().toLowerCase());
+            node.get("readNanos").set(a.totalNanos);
+            node.get("parseNanos").set(a.parseNanos);
+            node.get("headerBytes").set(a.headerBytes);
+            node.get("definitions").set(a.definitions);
+            node.get("packages").set(a.packages);
+
+            readNanos += a.totalNanos;
+            parseNanos += a.parseNanos;
+            headerBytes += a.headerBytes;
+            definitions += a.definitions;
+            packages += a.packages;
+            sources[a.source.ordinal()]++;
+        }
+
+        ModelNode totals = ret.get("totals");
+        totals.get("readNanos").set(readNanos);
+        totals.get("parseNanos").set(parseNanos);
+        totals.get("headerBytes").set(headerBytes);
+        totals.get("definitions").set(definitions);
+        totals.get("packages").set(packages);
+        for (Source s : Source.values()) {
+            totals.get("sources", s.name().toLowerCase()).set(sources[s.ordinal()]);
+        }
+
+        ModelNode applies = ret.get("applies");
+        applies.get("accepted").set(accepted.sum());
+        applies.get("rejected").set(rejected.sum());
+
+        ModelNode verdictCache = ret.get("verdictCache");
+        verdictCache.get("hits").set(verdictCacheHits.sum());
+        verdictCache.get("misses").set(verdictCacheMisses.sum());
+
+        ModelNode classFilters = ret.get("classFilters");
+        classFilters.get("matches").set(classFilterMatches.sum());
+        classFilters.get("nanos").set(classFilterNanos.sum());
+
+        return ret;
+    }
+
+    String summary() {
+        ModelNode node = toModelNode();
+        ModelNode totals = node.get("totals");
+        ModelNode sources = totals.get("sources");
+
+        long accepted = node.get("applies", "accepted").asLong();
+        long rejected = node.get("applies", "rejected").asLong();
+        long hits = node.get("verdictCache", "hits").asLong();
+        long misses = node.get("verdictCache", "misses").asLong();
+
+        return "OSGi export filter metrics:"
+                + "\n  archives: " + node.get("archives").asList().size()
+                + " (parsed " + sources.get("parsed").asInt()
+                + ", deduplicated " + sources.get("deduplicated").asInt()
+                + ", in-memory cache " + sources.get("shared_cache").asInt()
+                + ", disk cache " + sources.get("disk_cache").asInt()
+                + ", module descriptor " + sources.get("module_descriptor").asInt()
+                + ", no manifest " + sources.get("no_manifest").asInt() + ")"
+                + "\n  reading: " + millis(totals.get("readNanos").asLong()) + "ms, of which parsing "
+                + millis(totals.get("parseNanos").asLong()) + "ms of " + totals.get("headerBytes").asLong()
+                + " header bytes"
+                + "\n  exports: " + totals.get("definitions").asLong() + " definitions, "
+                + totals.get("packages").asLong() + " packages"
+                + "\n  applies: " + (accepted + rejected) + " calls, " + accepted + " accepted, " + rejected
+                + " rejected"
+                + "\n  verdict cache: " + hits + " hits, " + misses + " misses"
+                + "\n  class filters: " + node.get("classFilters", "matches").asLong() + " matches in "
+                + millis(node.get("classFilters", "nanos").asLong()) + "ms";
+    }
+
+    void writeTo(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(toModelNode().toJSONString(false));
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * The statistics of reading the exports of a single archive.
+     */
+    static final class ArchiveRead {
+        final String archiveName;
+        final long start;
+        long totalNanos;
+        Source source = Source.NO_MANIFEST;
+        long parseNanos;
+        int headerBytes;
+        int definitions;
+        int packages;
+
+        ArchiveRead(String archiveName, long start) {
+            this.archiveName = archiveName;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.revapi.osgi;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.jboss.dmr.ModelNode;
+import org.revapi.API;
+import org.revapi.Archive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Translates the exports of the OSGi bundles into the class filter of revapi-java, so that the classes that are not
+ * exported are excluded already when revapi-java scans the archives and are never turned into elements.
+ *
+ * <p>The configuration has to be known before the analysis starts, so it is meant to be merged into the configuration
+ * of the analysis by whoever sets it up:
+ * <pre>{@code
+ * AnalysisContext.builder(revapi)
+ *         .withOldAPI(oldApi)
+ *         .withNewAPI(newApi)
+ *         .withConfigurationFromJSON(configuration)
+ *         .mergeConfiguration(JavaFilterPushDown.configurationFor(oldApi, newApi))
+ *         .build();
+ * }</pre>
+ *
+ * <p>Only the classes that are not exported by any archive of either API they appear in are excluded and, unless
+ * package patterns are configured, the classes of the archives without the Export-Package header are never excluded,
+ * so the generated filter never excludes more than the {@link ExportPackageFilter} would. The filter should still be
+ * used, because it handles the classes the generated configuration cannot express. If the filter is configured, its
+ * configuration has to be passed here too, so that the package patterns and the module descriptors are taken into
+ * account the same way.
+ *
+ * <p>The generated filter uses regular expressions. If the user already configured a class filter for revapi-java,
+ * {@link #excludedClassesRegex(API, API, ModelNode)} can be added to it instead.
+ */
+public final class JavaFilterPushDown {
+    private static final Logger LOG = LoggerFactory.getLogger(JavaFilterPushDown.class);
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private JavaFilterPushDown() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Same as {@link #configurationFor(API, API, ModelNode)} with the default configuration of the filter.
+     */
+    public static ModelNode configurationFor(API oldApi, API newApi) {
+        return configurationFor(oldApi, newApi, new ModelNode());
+    }
+
+    /**
+     * Reads the manifests and lists the classes of the primary archives of both APIs.
+     *
+     * @param filterConfiguration the configuration of the {@code revapi.osgi} filter
+     * @return the configuration to merge into the configuration of the analysis, in the format with the extension ids
+     * listed explicitly. It is an empty list if there is nothing to exclude or if some of the archives could not be
+     * read.
+     */
+    public static ModelNode configurationFor(API oldApi, API newApi, ModelNode filterConfiguration) {
+        ModelNode ret = new ModelNode();
+        ret.setEmptyList();
+
+        String excludedClasses = excludedClassesRegex(oldApi, newApi, filterConfiguration);
+        if (excludedClasses == null) {
+            return ret;
+        }
+
+        ModelNode extension = ret.add();
+        extension.get("extension").set("revapi.java");
+        ModelNode classes = extension.get("configuration", "filter", "classes");
+        classes.get("regex").set(true);
+        classes.get("exclude").add(excludedClasses);
+
+        return ret;
+    }
+
+    /**
+     * Same as {@link #excludedClassesRegex(API, API, ModelNode)} with the default configuration of the filter.
+     */
+    public static String excludedClassesRegex(API oldApi, API newApi) {
+        return excludedClassesRegex(oldApi, newApi, new ModelNode());
+    }
+
+    /**
+     * The configuration produced by {@link #configurationFor(API, API, ModelNode)} cannot be merged with a class
+     * filter that is already configured for revapi-java. In that case, this regular expression can be added to the
+     * excluded classes of the existing filter instead.
+     *
+     * @param filterConfiguration the configuration of the {@code revapi.osgi} filter
+     * @return the regular expression matching the qualified names of the classes to exclude or null if there is
+     * nothing to exclude or if some of the archives could not be read
+     */
+    public static String excludedClassesRegex(API oldApi, API newApi, ModelNode filterConfiguration) {
+        FilterConfiguration configuration = FilterConfiguration.parse(filterConfiguration);
+        PackagePatterns patterns = configuration.getPackagePatterns();
+
+        SortedSet<String> excluded = new TreeSet<>();
+        Set<String> retained = new HashSet<>();
+
+        List<List<Archive>> apis = new ArrayList<>(2);
+        for (API api : new API[]{oldApi, newApi}) {
+            List<Archive> archives = new ArrayList<>();
+            api.getArchives().forEach(archives::add);
+            apis.add(archives);
+        }
+
+        // the archives of an API are read together so that the fragments share the exports of their hosts
+        List<Map<Archive, ExportIndex>> indicesByApi = new ExportReader(1, null, null, FilterMetrics.DISABLED,
+                configuration.getModuleExports()).readGroups(apis);
+
+        for (int i = 0; i < apis.size(); ++i) {
+            Map<Archive, ExportIndex> indices = indicesByApi.get(i);
+            for (Archive archive : apis.get(i)) {
+                List<String> entries;
+                try {
+                    entries = entryNames(archive);
+                } catch (IOException e) {
+                    LOG.debug("Failed to list the classes of " + archive + ". Will not generate the class filter.", e);
+                    return null;
+                }
+
+                ExportIndex index = indices.get(archive);
+                for (String entry : entries) {
+                    classify(entry, index, patterns, excluded, retained);
+                }
+            }
+        }
+
+        excluded.removeAll(retained);
+
+        if (excluded.isEmpty()) {
+            return null;
+        }
+
+        LOG.debug("Excluding {} unexported classes from the analysis in revapi-java.", excluded.size());
+
+        return regexOf(excluded);
+    }
+
+    private static void classify(String entry, ExportIndex index, PackagePatterns patterns, Set<String> excluded,
+            Set<String> retained) {
+        if (!entry.endsWith(CLASS_SUFFIX) || entry.startsWith("META-INF/")) {
+            return;
+        }
+
+        int nameStart = entry.lastIndexOf('/') + 1;
+        String binaryName = entry.substring(nameStart, entry.length() - CLASS_SUFFIX.length());
+        if (binaryName.equals("module-info") || binaryName.equals("package-info")) {
+            return;
+        }
+
+        // anonymous and local classes have no qualified name the filter of revapi-java could match
+        String[] nesting = binaryName.split("\\$", -1);
+        for (String name : nesting) {
+            if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+                return;
+            }
+        }
+
+        String packageName = nameStart == 0 ? "" : entry.substring(0, nameStart - 1).replace('/', '.');
+        String className = nesting[nesting.length - 1];
+        String qualifiedName = (packageName.isEmpty() ? "" : packageName + ".") + String.join(".", nesting);
+
+        // as in the filter, the archives without any exports export everything unless there are patterns to select from
+        boolean exported = index.isEmpty() && patterns.isEmpty()
+                || patterns.verdictOf(index, packageName).exports(className);
+        if (exported) {
+            retained.add(qualifiedName);
+        } else {
+            excluded.add(qualifiedName);
+        }
+    }
+
+    private static List<String> entryNames(Archive archive) throws IOException {
+        try (InputStream in = archive.openStream()) {
+            if (in instanceof FileInputStream) {
+                try {
+                    return ZipDirectory.read(((FileInputStream) in).getChannel()).names();
+                } catch (ZipException e) {
+                    LOG.debug("Failed to read the central directory of " + archive + ". Will stream it instead.", e);
+                }
+            }
+        }
+
+        List<String> ret = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(archive.openStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                ret.add(entry.getName());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Builds a regular expression matching exactly the given names. The names are merged into a trie so that the
+     * expression stays compact and matching a name doesn't need to try the names one by one.
+     */
+    static String regexOf(SortedSet<String> names) {
+        StringBuilder ret = new StringBuilder();
+        appendTrie(ret, new ArrayList<>(names), 0, names.size(), 0);
+        return ret.toString();
+    }
+
+    /**
+     * Appends the trie of the sorted names in the range, all of which share the first {@code depth} characters.
+     */
+    private static void appendTrie(StringBuilder out, List<String> names, int from, int to, int depth) {
+        String first = names.get(from);
+        String last = names.get(to - 1);
+
+        // the names are sorted, so the common prefix of the first and the last one is common to all of them
+        int common = depth;
+        int maxCommon = Math.min(first.length(), last.length());
+        while (common < maxCommon && first.charAt(common) == last.charAt(common)) {
+            ++common;
+        }
+
+        appendLiteral(out, first, depth, common);
+
+        if (from + 1 == to) {
+            return;
+        }
+
+        boolean optional = first.length() == common;
+        if (optional) {
+            ++from;
+        }
+
+        out.append("(?:");
+        int groupStart = from;
+        while (groupStart < to) {
+            char c = names.get(groupStart).charAt(common);
+            int groupEnd = groupStart + 1;
+            while (groupEnd < to && names.get(groupEnd).charAt(common) == c) {
+                ++groupEnd;
+            }
+
+            if (groupStart != from) {
+                out.append('|');
+            }
+            appendTrie(out, names, groupStart, groupEnd, common);
+
+            groupStart = groupEnd;
+        }
+        out.append(')');
+
+        if (optional) {
+            out.append('?');
+        }
+    }
+
+    private static void appendLiteral(StringBuilder out, String name, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            char c = name.charAt(i);
+            if (c < 128 && !Character.isLetterOrDigit(c) && c != '_') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.revapi.osgi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.revapi.Archive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the manifest out of an archive. If the archive is backed by a file, the manifest is looked up using the zip
+ * central directory and only the manifest entry is read and inflated. Other archives are streamed through until the
+ * manifest entry is found.
+ */
+final class ManifestReader {
+    private static final Logger LOG = LoggerFactory.getLogger(ManifestReader.class);
+
+    static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private ManifestReader() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return the raw bytes of the manifest or null if the archive doesn't contain one
+     */
+    static byte[] read(Archive archive) throws IOException {
+        try (InputStream in = archive.openStream()) {
+            if (in instanceof FileInputStream) {
+                try {
+                    return read(ZipDirectory.read(((FileInputStream) in).getChannel()));
+                } catch (ZipException e) {
+                    LOG.debug("Failed to read the central directory of " + archive + ". Will stream it instead.", e);
+                }
+            }
+        }
+
+        return stream(archive);
+    }
+
+    /**
+     * @return the raw bytes of the manifest or null if the zip file doesn't contain one
+     */
+    static byte[] read(ZipDirectory zip) throws IOException {
+        ZipDirectory.Entry manifest = zip.find(MANIFEST_NAME);
+        return manifest == null ? null : zip.read(manifest);
+    }
+
+    /**
+     * Reads the manifest by streaming through the archive.
+     *
+     * @return the raw bytes of the manifest or null if the archive doesn't contain one
+     */
+    static byte[] stream(Archive archive) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(archive.openStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                    return readAll(zip);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,271 @@
+package org.revapi.osgi;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.revapi.Archive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the packages exported by the module descriptor, {@code module-info.class}, of an archive. The class file is
+ * parsed as it is streamed: the constant pool is read only to resolve the names, everything else up to the Module
+ * attribute is skipped, and the parsing stops right after the exports of the module.
+ *
+ * <p>The descriptor in the root of the archive is preferred. If there is none, the descriptor of the highest version
+ * of a multi-release jar is used.
+ */
+final class ModuleDescriptorReader {
+    private static final Logger LOG = LoggerFactory.getLogger(ModuleDescriptorReader.class);
+
+    static final String MODULE_INFO = "module-info.class";
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final int MAGIC = 0xCAFEBABE;
+
+    enum Exports {
+        /**
+         * The module descriptors are ignored.
+         */
+        NONE,
+
+        /**
+         * Only the packages exported to all modules are exported.
+         */
+        UNQUALIFIED,
+
+        /**
+         * The packages exported only to specific modules are exported, too.
+         */
+        ALL
+    }
+
+    private ModuleDescriptorReader() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return the exported packages or null if the archive doesn't contain a module descriptor
+     */
+    static List<String> read(Archive archive, Exports exports) throws IOException {
+        try (InputStream in = archive.openStream()) {
+            if (in instanceof FileInputStream) {
+                try {
+                    return read(ZipDirectory.read(((FileInputStream) in).getChannel()), exports);
+                } catch (ZipException e) {
+                    LOG.debug("Failed to read the central directory of " + archive + ". Will stream it instead.", e);
+                }
+            }
+        }
+
+        return stream(archive, exports);
+    }
+
+    /**
+     * @return the exported packages or null if the zip file doesn't contain a module descriptor
+     */
+    static List<String> read(ZipDirectory zip, Exports exports) throws IOException {
+        ZipDirectory.Entry entry = zip.find(MODULE_INFO);
+        if (entry == null) {
+            String best = null;
+            int bestVersion = -1;
+            for (String name : zip.names()) {
+                int version = versionOf(name);
+                if (version > bestVersion) {
+                    best = name;
+                    bestVersion = version;
+                }
+            }
+
+            entry = best == null ? null : zip.find(best);
+            if (entry == null) {
+                return null;
+            }
+        }
+
+        try (InputStream in = zip.openStream(entry)) {
+            return parse(in, exports);
+        }
+    }
+
+    /**
+     * Streams through the archive, parsing the descriptors as they are encountered.
+     *
+     * @return the exported packages or null if the archive doesn't contain a module descriptor
+     */
+    static List<String> stream(Archive archive, Exports exports) throws IOException {
+        List<String> best = null;
+        int bestVersion = -1;
+
+        try (ZipInputStream zip = new ZipInputStream(archive.openStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (MODULE_INFO.equals(entry.getName())) {
+                    return parse(zip, exports);
+                }
+
+                int version = versionOf(entry.getName());
+                if (version > bestVersion) {
+                    best = parse(zip, exports);
+                    bestVersion = version;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return the version of the multi-release descriptor or -1 if the entry is not one
+     */
+    private static int versionOf(String entryName) {
+        if (!entryName.startsWith(VERSIONS_PREFIX) || !entryName.endsWith("/" + MODULE_INFO)) {
+            return -1;
+        }
+
+        String version = entryName.substring(VERSIONS_PREFIX.length(), entryName.length() - MODULE_INFO.length() - 1);
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the exports out of the class file of a module descriptor.
+     *
+     * @return the exported packages in the order of the descriptor, empty if the class file doesn't have the Module
+     * attribute
+     */
+    static List<String> parse(InputStream classFile, Exports exports) throws IOException {
+        try {
+            return doParse(new DataInputStream(classFile), exports);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Invalid constant pool reference in the module descriptor.", e);
+        }
+    }
+
+    private static List<String> doParse(DataInputStream in, Exports exports) throws IOException {
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file.");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        // only the UTF-8 entries and the package entries pointing to them are needed
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] packageNames = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; ++i) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 20: // Package
+                    packageNames[i] = in.readUnsignedShort();
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(in, 8);
+                    ++i;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + ".");
+            }
+        }
+
+        skip(in, 6); // access flags, this class, super class
+        skip(in, 2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; ++i) {
+            String name = utf8[in.readUnsignedShort()];
+            long length = in.readInt() & 0xFFFFFFFFL;
+            if ("Module".equals(name)) {
+                return readExports(in, utf8, packageNames, exports);
+            }
+            skip(in, length);
+        }
+
+        return Collections.emptyList();
+    }
+
+    private static List<String> readExports(DataInputStream in, String[] utf8, int[] packageNames, Exports exports)
+            throws IOException {
+        skip(in, 6); // module name, flags and version
+        skip(in, 6L * in.readUnsignedShort()); // requires
+
+        int exportCount = in.readUnsignedShort();
+        List<String> ret = new ArrayList<>(exportCount);
+        for (int i = 0; i < exportCount; ++i) {
+            int packageIndex = in.readUnsignedShort();
+            in.readUnsignedShort(); // flags
+            int targetCount = in.readUnsignedShort();
+            skip(in, 2 * targetCount);
+
+            if (targetCount == 0 || exports == Exports.ALL) {
+                String internalName = utf8[packageNames[packageIndex]];
+                if (internalName == null) {
+                    throw new IOException("Invalid package reference in the module descriptor.");
+                }
+                ret.add(internalName.replace('/', '.'));
+            }
+        }
+
+        return ret;
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; ++i) {
+            skip(in, 6); // access flags, name, descriptor
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; ++j) {
+                skip(in, 2);
+                skip(in, in.readInt() & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static void skip(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                in.readByte(); // throws EOFException at the end of the stream
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
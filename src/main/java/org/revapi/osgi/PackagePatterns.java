@@ -0,0 +1,328 @@
+package org.revapi.osgi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The bnd-style package instructions from the configuration, e.g. {@code com.acme.api.*} or
+ * {@code !com.acme.*.internal.*}, and how they combine with the exports of the archives.
+ *
+ * <p>The instructions are ordered and the first one matching a package decides: a package is selected if the first
+ * matching instruction is not negated. {@code *} matches any (possibly empty) sequence of characters, including dots,
+ * and a trailing {@code .*} also matches the package itself. All the instructions are compiled into a single
+ * deterministic automaton, so that matching a package name takes time linear in its length no matter how many
+ * instructions there are.
+ */
+final class PackagePatterns {
+    static final PackagePatterns NONE = new PackagePatterns(Mode.AUGMENT, new char[0], new int[0][], new boolean[0]);
+
+    private static final char WILDCARD = '*';
+    private static final char NEGATION = '!';
+    private static final int DEAD = -1;
+
+    enum Mode {
+        /**
+         * The selected packages are exported in addition to the exports of the archives.
+         */
+        AUGMENT,
+
+        /**
+         * Only the selected packages are exported, no matter the exports of the archives.
+         */
+        OVERRIDE,
+
+        /**
+         * Only the selected packages of the exports of the archives are exported.
+         */
+        NARROW
+    }
+
+    private final Mode mode;
+
+    // the distinct characters used in the instructions, the character class of any other character is 0
+    private final char[] alphabet;
+    private final int[][] transitions;
+    private final boolean[] selected;
+
+    private PackagePatterns(Mode mode, char[] alphabet, int[][] transitions, boolean[] selected) {
+        this.mode = mode;
+        this.alphabet = alphabet;
+        this.transitions = transitions;
+        this.selected = selected;
+    }
+
+    static PackagePatterns compile(List<String> instructions, Mode mode) {
+        if (instructions.isEmpty()) {
+            return NONE;
+        }
+
+        boolean[] negated = new boolean[instructions.size()];
+        List<String> globs = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int i = 0; i < instructions.size(); ++i) {
+            String instruction = instructions.get(i).trim();
+            negated[i] = !instruction.isEmpty() && instruction.charAt(0) == NEGATION;
+            String glob = negated[i] ? instruction.substring(1).trim() : instruction;
+            validate(instructions.get(i), glob);
+
+            globs.add(glob);
+            owners.add(i);
+            if (glob.length() > 2 && glob.endsWith(".*")) {
+                globs.add(glob.substring(0, glob.length() - 2));
+                owners.add(i);
+            }
+        }
+
+        return new Compiler(globs, owners, negated).compile(mode);
+    }
+
+    private static void validate(String instruction, String glob) {
+        boolean valid = !glob.isEmpty() && glob.charAt(0) != '.' && glob.charAt(glob.length() - 1) != '.';
+        for (int i = 0; valid && i < glob.length(); ++i) {
+            char c = glob.charAt(i);
+            valid = c == WILDCARD || c == '.' && glob.charAt(i - 1) != '.' || Character.isJavaIdentifierPart(c);
+        }
+
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid package pattern: '" + instruction + "'.");
+        }
+    }
+
+    boolean isEmpty() {
+        return transitions.length == 0;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if the first instruction matching the package is not negated
+     */
+    boolean selects(String packageName) {
+        if (isEmpty()) {
+            return false;
+        }
+
+        int state = 0;
+        for (int i = 0; i < packageName.length(); ++i) {
+            state = transitions[state][classOf(packageName.charAt(i))];
+            if (state == DEAD) {
+                return false;
+            }
+        }
+        return selected[state];
+    }
+
+    /**
+     * An archive without any exports exports just the selected packages in all the modes.
+     *
+     * @param index the exports of the archive the package comes from
+     */
+    PackageVerdict verdictOf(ExportIndex index, String packageName) {
+        if (isEmpty()) {
+            return index.verdictOf(packageName);
+        }
+
+        boolean selects = selects(packageName);
+        if (index.isEmpty()) {
+            return selects ? PackageVerdict.EXPORTED : PackageVerdict.NOT_EXPORTED;
+        }
+
+        switch (mode) {
+            case AUGMENT:
+                return selects ? PackageVerdict.EXPORTED : index.verdictOf(packageName);
+            case OVERRIDE:
+                return selects ? PackageVerdict.EXPORTED : PackageVerdict.NOT_EXPORTED;
+            default:
+                return selects ? index.verdictOf(packageName) : PackageVerdict.NOT_EXPORTED;
+        }
+    }
+
+    private int classOf(char c) {
+        int index = Arrays.binarySearch(alphabet, c);
+        return index < 0 ? 0 : index + 1;
+    }
+
+    /**
+     * Builds the automaton using the subset construction. The states of the non-deterministic automaton are the
+     * positions in the globs, a state of the deterministic one is the set of positions reachable by its input.
+     */
+    private static final class Compiler {
+        private final List<String> globs;
+        private final int[] owners;
+        private final boolean[] negated;
+
+        // the positions of all the globs are numbered consecutively, each glob has one more position than characters
+        private final int[] firstPositions;
+        private final int[] globOfPosition;
+
+        // the positions from which the glob matches any input
+        private final BitSet universal = new BitSet();
+
+        private final char[] alphabet;
+
+        Compiler(List<String> globs, List<Integer> owners, boolean[] negated) {
+            this.globs = globs;
+            this.owners = owners.stream().mapToInt(Integer::intValue).toArray();
+            this.negated = negated;
+
+            int positionCount = 0;
+            firstPositions = new int[globs.size()];
+            for (int g = 0; g < globs.size(); ++g) {
+                firstPositions[g] = positionCount;
+                positionCount += globs.get(g).length() + 1;
+            }
+
+            globOfPosition = new int[positionCount];
+            TreeSet<Character> chars = new TreeSet<>();
+            for (int g = 0; g < globs.size(); ++g) {
+                String glob = globs.get(g);
+                Arrays.fill(globOfPosition, firstPositions[g], firstPositions[g] + glob.length() + 1, g);
+
+                for (int i = glob.length() - 1; i >= 0 && glob.charAt(i) == WILDCARD; --i) {
+                    universal.set(firstPositions[g] + i);
+                }
+
+                for (int i = 0; i < glob.length(); ++i) {
+                    if (glob.charAt(i) != WILDCARD) {
+                        chars.add(glob.charAt(i));
+                    }
+                }
+            }
+
+            alphabet = new char[chars.size()];
+            int i = 0;
+            for (char c : chars) {
+                alphabet[i++] = c;
+            }
+        }
+
+        PackagePatterns compile(Mode mode) {
+            BitSet initial = new BitSet();
+            for (int g = 0; g < globs.size(); ++g) {
+                add(initial, g, 0);
+            }
+
+            Map<BitSet, Integer> stateIds = new HashMap<>();
+            List<BitSet> states = new ArrayList<>();
+            List<int[]> transitions = new ArrayList<>();
+            Deque<Integer> todo = new ArrayDeque<>();
+
+            stateIds.put(prune(initial), 0);
+            states.add(initial);
+            todo.add(0);
+
+            while (!todo.isEmpty()) {
+                int id = todo.poll();
+                BitSet state = states.get(id);
+
+                int[] next = new int[alphabet.length + 1];
+                for (int cls = 0; cls < next.length; ++cls) {
+                    BitSet target = prune(step(state, cls == 0 ? null : alphabet[cls - 1]));
+                    if (target.isEmpty()) {
+                        next[cls] = DEAD;
+                        continue;
+                    }
+
+                    Integer targetId = stateIds.get(target);
+                    if (targetId == null) {
+                        targetId = states.size();
+                        stateIds.put(target, targetId);
+                        states.add(target);
+                        todo.add(targetId);
+                    }
+                    next[cls] = targetId;
+                }
+
+                // the states are processed in the order of their ids
+                transitions.add(next);
+            }
+
+            boolean[] selected = new boolean[states.size()];
+            for (int i = 0; i < selected.length; ++i) {
+                int decisive = decisiveInstruction(states.get(i));
+                selected[i] = decisive >= 0 && !negated[decisive];
+            }
+
+            return new PackagePatterns(mode, alphabet, transitions.toArray(new int[0][]), selected);
+        }
+
+        /**
+         * Adds the position together with all the positions reachable from it on no input, i.e. past the wildcards.
+         */
+        private void add(BitSet state, int glob, int index) {
+            String pattern = globs.get(glob);
+            state.set(firstPositions[glob] + index);
+            while (index < pattern.length() && pattern.charAt(index) == WILDCARD) {
+                state.set(firstPositions[glob] + ++index);
+            }
+        }
+
+        /**
+         * @param c the input character or null for any character not used in the globs
+         */
+        private BitSet step(BitSet state, Character c) {
+            BitSet ret = new BitSet();
+            for (int p = state.nextSetBit(0); p >= 0; p = state.nextSetBit(p + 1)) {
+                int glob = globOfPosition[p];
+                int index = p - firstPositions[glob];
+                String pattern = globs.get(glob);
+                if (index == pattern.length()) {
+                    continue;
+                }
+
+                char expected = pattern.charAt(index);
+                if (expected == WILDCARD) {
+                    add(ret, glob, index);
+                } else if (c != null && expected == c) {
+                    add(ret, glob, index + 1);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Once an instruction matches whatever follows, the instructions after it can never decide anymore. Leaving
+         * their positions out keeps the number of states small.
+         */
+        private BitSet prune(BitSet state) {
+            int first = Integer.MAX_VALUE;
+            for (int p = universal.nextSetBit(0); p >= 0; p = universal.nextSetBit(p + 1)) {
+                if (state.get(p)) {
+                    first = Math.min(first, owners[globOfPosition[p]]);
+                }
+            }
+
+            if (first != Integer.MAX_VALUE) {
+                for (int p = state.nextSetBit(0); p >= 0; p = state.nextSetBit(p + 1)) {
+                    if (owners[globOfPosition[p]] > first) {
+                        state.clear(p);
+                    }
+                }
+            }
+            return state;
+        }
+
+        /**
+         * @return the first instruction matching the input leading to the state or -1 if none does
+         */
+        private int decisiveInstruction(BitSet state) {
+            int ret = -1;
+            for (int p = state.nextSetBit(0); p >= 0; p = state.nextSetBit(p + 1)) {
+                int glob = globOfPosition[p];
+                if (p - firstPositions[glob] == globs.get(glob).length() && (ret < 0 || owners[glob] < ret)) {
+                    ret = owners[glob];
+                }
+            }
+            return ret;
+        }
+    }
+}
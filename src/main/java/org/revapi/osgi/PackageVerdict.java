@@ -0,0 +1,79 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptyList;
+
+import java.util.List;
+
+import javax.lang.model.element.TypeElement;
+
+/**
+ * What the export definitions say about a single package. Only the packages exported with class filters need to look
+ * at the individual classes.
+ */
+final class PackageVerdict {
+    static final PackageVerdict EXPORTED = new PackageVerdict(Kind.EXPORTED, emptyList());
+    static final PackageVerdict NOT_EXPORTED = new PackageVerdict(Kind.NOT_EXPORTED, emptyList());
+
+    private final Kind kind;
+    private final List<ExportPackageDefinition> definitions;
+
+    private PackageVerdict(Kind kind, List<ExportPackageDefinition> definitions) {
+        this.kind = kind;
+        this.definitions = definitions;
+    }
+
+    static PackageVerdict of(List<ExportPackageDefinition> definitions) {
+        if (definitions.isEmpty()) {
+            return NOT_EXPORTED;
+        }
+
+        for (ExportPackageDefinition d : definitions) {
+            if (!d.hasClassFilters()) {
+                return EXPORTED;
+            }
+        }
+
+        return new PackageVerdict(Kind.FILTERED, definitions);
+    }
+
+    /**
+     * @return true if the individual classes of the package need to be matched against the class filters
+     */
+    boolean hasClassFilters() {
+        return kind == Kind.FILTERED;
+    }
+
+    boolean exports(TypeElement type) {
+        switch (kind) {
+            case EXPORTED:
+                return true;
+            case NOT_EXPORTED:
+                return false;
+            default:
+                return exports(type.getSimpleName().toString());
+        }
+    }
+
+    /**
+     * @param className the simple name of a class from the package
+     */
+    boolean exports(String className) {
+        switch (kind) {
+            case EXPORTED:
+                return true;
+            case NOT_EXPORTED:
+                return false;
+            default:
+                for (ExportPackageDefinition d : definitions) {
+                    if (d.exportsClass(className)) {
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+
+    private enum Kind {
+        EXPORTED, NOT_EXPORTED, FILTERED
+    }
+}
@@ -0,0 +1,73 @@
+package org.revapi.osgi;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A JVM-wide cache of the compiled export indices of archives. This makes repeated analyses within a single JVM (e.g.
+ * the modules of a large reactor build or a build daemon) skip reading and parsing the manifests of the archives they
+ * have in common. The archives are still opened and their central directories read to compute the fingerprints the
+ * entries are keyed by.
+ *
+ * <p>The maximum number of entries is global, too. It is set by every analysis that enables the cache, so the last
+ * one to initialize wins.
+ *
+ * <p>The cache holds at most the configured number of entries, evicting the least recently used ones, and the indices
+ * are only softly referenced so that they can be reclaimed under memory pressure.
+ */
+final class SharedExportCache {
+    static final SharedExportCache INSTANCE = new SharedExportCache();
+
+    private final LinkedHashMap<ArchiveFingerprint, SoftReference<ExportIndex>> entries =
+            new LinkedHashMap<ArchiveFingerprint, SoftReference<ExportIndex>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ArchiveFingerprint, SoftReference<ExportIndex>> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+
+    private int maxEntries;
+
+    SharedExportCache() {
+        this.maxEntries = 0;
+    }
+
+    synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+
+        Iterator<SoftReference<ExportIndex>> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the cached index or null if there is none for the fingerprint
+     */
+    synchronized ExportIndex get(ArchiveFingerprint fingerprint) {
+        SoftReference<ExportIndex> ref = entries.get(fingerprint);
+        if (ref == null) {
+            return null;
+        }
+
+        ExportIndex index = ref.get();
+        if (index == null) {
+            entries.remove(fingerprint);
+        }
+
+        return index;
+    }
+
+    synchronized void put(ArchiveFingerprint fingerprint, ExportIndex index) {
+        if (maxEntries > 0) {
+            entries.put(fingerprint, new SoftReference<>(index));
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
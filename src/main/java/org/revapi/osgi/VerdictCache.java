@@ -0,0 +1,44 @@
+package org.revapi.osgi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.lang.model.element.PackageElement;
+
+/**
+ * Caches the package verdicts of an {@link ExportIndex}, adjusted by the configured {@link PackagePatterns}, for the
+ * package elements of a single analysis. Safe for concurrent use.
+ */
+final class VerdictCache {
+    private final ExportIndex index;
+    private final PackagePatterns patterns;
+
+    // The package elements are unique within a type environment and their names are expensive to convert to strings
+    // (javac creates a new string on every toString(), charAt() or contentEquals() call), so the verdicts are cached
+    // by the package elements themselves. Javac's symbols don't override equals() and hashCode(), so this is
+    // effectively an identity map.
+    private final ConcurrentMap<PackageElement, PackageVerdict> verdicts = new ConcurrentHashMap<>();
+
+    private final FilterMetrics metrics;
+
+    VerdictCache(ExportIndex index, PackagePatterns patterns, FilterMetrics metrics) {
+        this.index = index;
+        this.patterns = patterns;
+        this.metrics = metrics;
+    }
+
+    boolean isEmpty() {
+        return index.isEmpty() && patterns.isEmpty();
+    }
+
+    PackageVerdict verdictOf(PackageElement pkg) {
+        // computeIfAbsent() would lock even when the verdict is already known
+        PackageVerdict ret = verdicts.get(pkg);
+        metrics.verdictCacheHit(ret != null);
+        if (ret == null) {
+            ret = patterns.verdictOf(index, pkg.getQualifiedName().toString());
+            verdicts.putIfAbsent(pkg, ret);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,387 @@
+package org.revapi.osgi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The central directory of a zip file accessed using positional reads on a file channel. This makes it possible to
+ * read individual entries of a (potentially large) jar file without reading through all the entries preceding it.
+ */
+final class ZipDirectory {
+    private static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIR_SIG = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIR_LOCATOR_SIG = 0x07064b50;
+    private static final int CENTRAL_DIR_HEADER_SIG = 0x02014b50;
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_DIR_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer directory;
+    private final int entryCount;
+
+    private ZipDirectory(FileChannel channel, ByteBuffer directory, int entryCount) {
+        this.channel = channel;
+        this.directory = directory;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Reads the central directory of the zip file.
+     *
+     * @param channel the channel to read the zip file from. The channel is not closed by this class.
+     * @throws ZipException if the file doesn't look like a zip file
+     */
+    static ZipDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIR_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+
+        int eocd = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIR_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIR_SIG
+                    && i + END_OF_CENTRAL_DIR_SIZE + (tail.getShort(i + 20) & 0xFFFF) <= tailSize) {
+                eocd = i;
+                break;
+            }
+        }
+
+        if (eocd == -1) {
+            throw new ZipException("End of central directory not found.");
+        }
+
+        long entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_END_OF_CENTRAL_DIR_LOCATOR_SIG) {
+            ByteBuffer zip64 = readFully(channel, tail.getLong(locator + 8), 56);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIR_SIG) {
+                throw new ZipException("Invalid zip64 end of central directory record.");
+            }
+            entryCount = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+
+        if (directoryOffset + directorySize > fileSize || directorySize > Integer.MAX_VALUE
+                || entryCount > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory location.");
+        }
+
+        return new ZipDirectory(channel, readFully(channel, directoryOffset, (int) directorySize), (int) entryCount);
+    }
+
+    long getFileSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * The central directory contains the CRC, sizes and timestamps of all the entries, so its digest identifies the
+     * contents of the whole zip file without the need to read it all.
+     */
+    byte[] digest() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(directory.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by the JVM.", e);
+        }
+    }
+
+    /**
+     * @return the entry with the given name or null if there is no such entry
+     */
+    Entry find(String name) throws ZipException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        int pos = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            if (pos + CENTRAL_DIR_HEADER_SIZE > directory.limit() || directory.getInt(pos) != CENTRAL_DIR_HEADER_SIG) {
+                throw new ZipException("Invalid central directory entry.");
+            }
+
+            int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+
+            if (nameEquals(pos + CENTRAL_DIR_HEADER_SIZE, nameLength, nameBytes)) {
+                return toEntry(name, pos, nameLength, extraLength);
+            }
+
+            pos += CENTRAL_DIR_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the names of all the entries in the order of the central directory
+     */
+    List<String> names() throws ZipException {
+        List<String> ret = new ArrayList<>(entryCount);
+
+        int pos = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            if (pos + CENTRAL_DIR_HEADER_SIZE > directory.limit() || directory.getInt(pos) != CENTRAL_DIR_HEADER_SIG) {
+                throw new ZipException("Invalid central directory entry.");
+            }
+
+            int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBuffer = directory.duplicate();
+            // through Buffer, because the covariant override of Java 9+ doesn't exist on Java 8
+            ((Buffer) nameBuffer).position(pos + CENTRAL_DIR_HEADER_SIZE);
+            nameBuffer.get(name);
+            ret.add(new String(name, StandardCharsets.UTF_8));
+
+            pos += CENTRAL_DIR_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Reads and if necessary inflates the contents of the entry.
+     */
+    byte[] read(Entry entry) throws IOException {
+        long dataOffset = dataOffset(entry);
+
+        if (entry.size > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE) {
+            throw new ZipException("Entry " + entry.name + " is too large.");
+        }
+
+        ByteBuffer data = readFully(channel, dataOffset, (int) entry.compressedSize);
+
+        switch (entry.method) {
+            case STORED:
+                return data.array();
+            case DEFLATED:
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(data.array());
+                    byte[] ret = new byte[(int) entry.size];
+                    int len = 0;
+                    while (len < ret.length) {
+                        int read = inflater.inflate(ret, len, ret.length - len);
+                        if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                            break;
+                        }
+                        len += read;
+                    }
+                    if (len != ret.length) {
+                        throw new ZipException("Unexpected size of inflated " + entry.name + ".");
+                    }
+                    return ret;
+                } catch (DataFormatException e) {
+                    throw new ZipException("Failed to inflate " + entry.name + ": " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " of " + entry.name + ".");
+        }
+    }
+
+    /**
+     * Opens a stream of the contents of the entry that reads the data directly from the channel as it is consumed, so
+     * that even large entries are never held in memory or copied anywhere. The returned stream doesn't close the
+     * channel.
+     */
+    InputStream openStream(Entry entry) throws IOException {
+        long dataOffset = dataOffset(entry);
+
+        switch (entry.method) {
+            case STORED:
+                return new RegionInputStream(channel, dataOffset, entry.compressedSize, false);
+            case DEFLATED:
+                Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(new RegionInputStream(channel, dataOffset, entry.compressedSize, true),
+                        inflater, 8192) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            inflater.end();
+                            super.close();
+                        }
+                    }
+                };
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " of " + entry.name + ".");
+        }
+    }
+
+    private long dataOffset(Entry entry) throws IOException {
+        ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Invalid local header of " + entry.name + ".");
+        }
+
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF)
+                + (header.getShort(28) & 0xFFFF);
+    }
+
+    private boolean nameEquals(int offset, int length, byte[] name) {
+        if (length != name.length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (directory.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Entry toEntry(String name, int pos, int nameLength, int extraLength) {
+        int method = directory.getShort(pos + 10) & 0xFFFF;
+        long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+        long size = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+        long localHeaderOffset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+
+        // the zip64 extended information only contains the fields that overflowed, in this order
+        int extra = pos + CENTRAL_DIR_HEADER_SIZE + nameLength;
+        int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+            int id = directory.getShort(extra) & 0xFFFF;
+            int length = directory.getShort(extra + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA_FIELD_ID) {
+                int field = extra + 4;
+                if (size == 0xFFFFFFFFL) {
+                    size = directory.getLong(field);
+                    field += 8;
+                }
+                if (compressedSize == 0xFFFFFFFFL) {
+                    compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL) {
+                    localHeaderOffset = directory.getLong(field);
+                }
+                break;
+            }
+            extra += 4 + length;
+        }
+
+        return new Entry(name, method, compressedSize, size, localHeaderOffset);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Reads a region of the channel using positional reads, so that several streams can read the same channel.
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        // the inflater needs an extra byte after the deflated data when not reading the zlib wrapper
+        private boolean padding;
+
+        RegionInputStream(FileChannel channel, long start, long length, boolean padding) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + length;
+            this.padding = padding;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (position >= end) {
+                if (padding) {
+                    padding = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    static final class Entry {
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.revapi.osgi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emits the Java Flight Recorder events of the extension. This is the Java 11 version of the class, packaged in the
+ * multi-release part of the jar. When the events are not being recorded, the JFR instrumentation reduces the
+ * per-archive events to a couple of checks and the decisions are not even counted.
+ *
+ * <p>Only the nested {@link Jfr} class links against {@code jdk.jfr}, so that on a runtime without that module, e.g. a
+ * jlinked one, this class still loads and does nothing.
+ */
+final class FilterEvents {
+    private static final boolean AVAILABLE = register();
+
+    private FilterEvents() {
+        throw new AssertionError();
+    }
+
+    static Object startManifestRead() {
+        return AVAILABLE ? Jfr.startManifestRead() : null;
+    }
+
+    static void endManifestRead(Object token, String archiveName, String source, int headerBytes, int packages) {
+        if (token != null) {
+            Jfr.endManifestRead(token, archiveName, source, headerBytes, packages);
+        }
+    }
+
+    static Object startHeaderParse() {
+        return AVAILABLE ? Jfr.startHeaderParse() : null;
+    }
+
+    static void endHeaderParse(Object token, int headerBytes, int clauses) {
+        if (token != null) {
+            Jfr.endHeaderParse(token, headerBytes, clauses);
+        }
+    }
+
+    static void applied(boolean accepted) {
+        if (AVAILABLE) {
+            Jfr.applied(accepted);
+        }
+    }
+
+    private static boolean register() {
+        try {
+            Jfr.register();
+            return true;
+        } catch (LinkageError | IllegalStateException | SecurityException e) {
+            // jdk.jfr is missing or the periodic event can't be registered
+            return false;
+        }
+    }
+
+    private static final class Jfr {
+        private static final EventType DECISIONS_TYPE = EventType.getEventType(DecisionsEvent.class);
+
+        private static final LongAdder ACCEPTED = new LongAdder();
+        private static final LongAdder REJECTED = new LongAdder();
+
+        static void register() {
+            // the decisions are far too frequent to be recorded individually, so they are counted and emitted
+            // periodically
+            FlightRecorder.addPeriodicEvent(DecisionsEvent.class, () -> {
+                DecisionsEvent event = new DecisionsEvent();
+                event.accepted = ACCEPTED.sumThenReset();
+                event.rejected = REJECTED.sumThenReset();
+                event.commit();
+            });
+        }
+
+        static Object startManifestRead() {
+            ManifestReadEvent event = new ManifestReadEvent();
+            event.begin();
+            return event;
+        }
+
+        static void endManifestRead(Object token, String archiveName, String source, int headerBytes, int packages) {
+            ManifestReadEvent event = (ManifestReadEvent) token;
+            event.end();
+            if (event.shouldCommit()) {
+                event.archive = archiveName;
+                event.source = source;
+                event.headerBytes = headerBytes;
+                event.packages = packages;
+                event.commit();
+            }
+        }
+
+        static Object startHeaderParse() {
+            HeaderParseEvent event = new HeaderParseEvent();
+            event.begin();
+            return event;
+        }
+
+        static void endHeaderParse(Object token, int headerBytes, int clauses) {
+            HeaderParseEvent event = (HeaderParseEvent) token;
+            event.end();
+            if (event.shouldCommit()) {
+                event.headerBytes = headerBytes;
+                event.clauses = clauses;
+                event.commit();
+            }
+        }
+
+        static void applied(boolean accepted) {
+            if (DECISIONS_TYPE.isEnabled()) {
+                (accepted ? ACCEPTED : REJECTED).increment();
+            }
+        }
+    }
+
+    @Name("org.revapi.osgi.ManifestRead")
+    @Label("Manifest Read")
+    @Description("Reading of the exports of a single archive")
+    @Category({"Revapi", "OSGi"})
+    static final class ManifestReadEvent extends Event {
+        @Label("Archive")
+        String archive;
+
+        @Label("Source")
+        @Description("Whether the exports were parsed, deduplicated or taken from a cache")
+        String source;
+
+        @Label("Header Size")
+        @DataAmount
+        int headerBytes;
+
+        @Label("Exported Packages")
+        int packages;
+    }
+
+    @Name("org.revapi.osgi.HeaderParse")
+    @Label("Export-Package Parse")
+    @Description("Parsing of a single Export-Package header")
+    @Category({"Revapi", "OSGi"})
+    static final class HeaderParseEvent extends Event {
+        @Label("Header Length")
+        int headerBytes;
+
+        @Label("Clauses")
+        int clauses;
+    }
+
+    @Name("org.revapi.osgi.Decisions")
+    @Label("Filter Decisions")
+    @Description("The number of elements accepted and rejected by the filter since the previous event")
+    @Category({"Revapi", "OSGi"})
+    @Period("1 s")
+    @StackTrace(false)
+    static final class DecisionsEvent extends Event {
+        @Label("Accepted")
+        long accepted;
+
+        @Label("Rejected")
+        long rejected;
+    }
+}
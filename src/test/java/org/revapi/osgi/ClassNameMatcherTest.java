@@ -0,0 +1,117 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class ClassNameMatcherTest {
+
+    @Test
+    public void testNoGlobsMatchNothing() {
+        assertFalse(ClassNameMatcher.compile(Collections.emptyList()).matches("A"));
+    }
+
+    @Test
+    public void testLiteral() {
+        ClassNameMatcher m = ClassNameMatcher.compile(asList("Foo"));
+        assertTrue(m.matches("Foo"));
+        assertFalse(m.matches("Foo2"));
+        assertFalse(m.matches("Fo"));
+    }
+
+    @Test
+    public void testPrefixSuffixAndInfix() {
+        assertTrue(ClassNameMatcher.compile(asList("Foo*")).matches("FooBar"));
+        assertFalse(ClassNameMatcher.compile(asList("Foo*")).matches("BarFoo"));
+        assertTrue(ClassNameMatcher.compile(asList("*Impl")).matches("FooImpl"));
+        assertFalse(ClassNameMatcher.compile(asList("*Impl")).matches("ImplFoo"));
+        assertTrue(ClassNameMatcher.compile(asList("*Impl*")).matches("AImplB"));
+        assertFalse(ClassNameMatcher.compile(asList("*Impl*")).matches("AImpB"));
+    }
+
+    @Test
+    public void testWildcardOnlyMatchesEverything() {
+        assertTrue(ClassNameMatcher.compile(asList("*")).matches(""));
+        assertTrue(ClassNameMatcher.compile(asList("A", "**")).matches("B"));
+    }
+
+    @Test
+    public void testGeneralGlobs() {
+        ClassNameMatcher m = ClassNameMatcher.compile(asList("*Impl*Internal*"));
+        assertTrue(m.matches("FooImplBarInternalBaz"));
+        assertTrue(m.matches("ImplInternal"));
+        assertFalse(m.matches("InternalImpl"));
+
+        m = ClassNameMatcher.compile(asList("A*B*C", "X*Y"));
+        assertTrue(m.matches("ABC"));
+        assertTrue(m.matches("AxxBxxC"));
+        assertTrue(m.matches("XY"));
+        assertFalse(m.matches("AxxC"));
+        assertFalse(m.matches("XYZ"));
+    }
+
+    @Test
+    public void testNonAsciiClassNames() {
+        ClassNameMatcher m = ClassNameMatcher.compile(asList("\u017d*\u010d*\u00fd", "Foo"));
+        assertTrue(m.matches("\u017dlu\u0165ou\u010dk\u00fd"));
+        assertFalse(m.matches("\u017dlu\u0165ou\u010dky"));
+    }
+
+    @Test
+    public void testPathologicalGlobsAreFast() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100_000; ++i) {
+            name.append('a');
+        }
+        String className = name.toString();
+
+        long start = System.nanoTime();
+        assertFalse(ClassNameMatcher.compile(asList("*a*a*a*a*a*a*a*a*b")).matches(className));
+        assertFalse(ClassNameMatcher.compile(asList("*a*a*a*a*a*a*a*a*b", "b*")).matches(className));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    public void testMatchesLikeRegexTranslation() {
+        Random rnd = new Random(42);
+        char[] alphabet = {'A', 'B', 'c', '$', '*'};
+
+        for (int i = 0; i < 2_000; ++i) {
+            List<String> globs = new ArrayList<>();
+            int globCount = 1 + rnd.nextInt(40);
+            for (int g = 0; g < globCount; ++g) {
+                globs.add(randomString(rnd, alphabet, 1 + rnd.nextInt(6)));
+            }
+
+            ClassNameMatcher matcher = ClassNameMatcher.compile(globs);
+            List<Pattern> patterns = new ArrayList<>();
+            for (String glob : globs) {
+                patterns.add(Pattern.compile(Pattern.quote(glob).replace("*", "\\E.*\\Q")));
+            }
+
+            for (int n = 0; n < 20; ++n) {
+                String className = randomString(rnd, alphabet, rnd.nextInt(10)).replace("*", "");
+                boolean expected = patterns.stream().anyMatch(p -> p.matcher(className).matches());
+                assertEquals(globs + " vs " + className, expected, matcher.matches(className));
+            }
+        }
+    }
+
+    private static String randomString(Random rnd, char[] alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            sb.append(alphabet[rnd.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.simple.FileArchive;
+
+public class DiskDefinitionCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DiskDefinitionCache cache = new DiskDefinitionCache(tmp.getRoot().toPath().resolve("cache"), Long.MAX_VALUE);
+        ArchiveFingerprint fingerprint = new ArchiveFingerprint("a.jar", 42, new byte[]{1, 2, 3});
+
+        assertNull(cache.get(fingerprint));
+
+        Set<ExportPackageDefinition> definitions = new HashSet<>(asList(
+                new ExportPackageDefinition(asList("a.b", "c.d"), singletonList("X*"), singletonList("*Impl")),
+                new ExportPackageDefinition(singletonList("e.f"), emptyList(), emptyList(),
+                        singletonMap("version", "1.2.3"))));
+
+        BundleHeaders headers = new BundleHeaders(definitions, "com.acme.fragment", "com.acme.host");
+        cache.put(fingerprint, headers);
+
+        assertEquals(headers, cache.get(fingerprint));
+        assertNull(cache.get(new ArchiveFingerprint("a.jar", 43, new byte[]{1, 2, 3})));
+        assertNull(cache.get(new ArchiveFingerprint("a.jar", 42, new byte[]{1, 2, 4})));
+    }
+
+    @Test
+    public void testCorruptedEntryIgnored() throws Exception {
+        Path dir = tmp.getRoot().toPath();
+        DiskDefinitionCache cache = new DiskDefinitionCache(dir, Long.MAX_VALUE);
+        ArchiveFingerprint fingerprint = new ArchiveFingerprint("a.jar", 42, new byte[]{1, 2, 3});
+
+        cache.put(fingerprint, headers(new ExportPackageDefinition(singletonList("a"), emptyList(), emptyList())));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            Path entry = files.findFirst().orElseThrow(AssertionError::new);
+            byte[] data = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOf(data, data.length - 3));
+        }
+
+        assertNull(cache.get(fingerprint));
+    }
+
+    @Test
+    public void testCorruptedCountsIgnored() throws Exception {
+        Path dir = tmp.getRoot().toPath();
+        DiskDefinitionCache cache = new DiskDefinitionCache(dir, Long.MAX_VALUE);
+        ArchiveFingerprint fingerprint = new ArchiveFingerprint("a.jar", 42, new byte[]{1, 2, 3});
+
+        cache.put(fingerprint, headers(new ExportPackageDefinition(singletonList("a"), emptyList(), emptyList())));
+
+        Path entry = dir.resolve(fingerprint.toFileName() + ".exports");
+        byte[] data = Files.readAllBytes(entry);
+
+        // magic, version, name, size, digest and the two absent bundle names precede the number of definitions
+        int countOffset = 4 + 4 + (2 + "a.jar".length()) + 8 + (2 + 3) + 1 + 1;
+        assertEquals(1, ByteBuffer.wrap(data).getInt(countOffset));
+
+        for (int count : new int[]{-1, Integer.MAX_VALUE}) {
+            ByteBuffer.wrap(data).putInt(countOffset, count);
+            Files.write(entry, data);
+            assertNull(cache.get(fingerprint));
+        }
+    }
+
+    @Test
+    public void testStaleTempFilesRemoved() throws Exception {
+        Path dir = tmp.getRoot().toPath();
+        Path stale = Files.createTempFile(dir, "exports", ".tmp");
+        Path inFlight = Files.createTempFile(dir, "exports", ".tmp");
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60_000));
+
+        new DiskDefinitionCache(dir, Long.MAX_VALUE).evict();
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(inFlight));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesEvicted() throws Exception {
+        Path dir = tmp.getRoot().toPath();
+        DiskDefinitionCache unbounded = new DiskDefinitionCache(dir, Long.MAX_VALUE);
+
+        ArchiveFingerprint old = new ArchiveFingerprint("old.jar", 1, new byte[0]);
+        ArchiveFingerprint recent = new ArchiveFingerprint("recent.jar", 1, new byte[0]);
+
+        unbounded.put(old, headers(new ExportPackageDefinition(singletonList("a"), emptyList(), emptyList())));
+        unbounded.put(recent, headers(new ExportPackageDefinition(singletonList("b"), emptyList(), emptyList())));
+
+        long entrySize;
+        try (Stream<Path> files = Files.list(dir)) {
+            entrySize = files.mapToLong(f -> f.toFile().length()).max().orElseThrow(AssertionError::new);
+        }
+
+        // make sure the entries differ in their modification time
+        Files.setLastModifiedTime(dir.resolve(old.toFileName() + ".exports"),
+                FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+        new DiskDefinitionCache(dir, entrySize).evict();
+
+        assertNull(unbounded.get(old));
+        assertEquals(1, unbounded.get(recent).getExports().size());
+    }
+
+    @Test
+    public void testExportReaderUsesCache() throws Exception {
+        File jar = tmp.newFile("bundle.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Export-Package", "a.b.c");
+        new JarOutputStream(new FileOutputStream(jar), manifest).close();
+
+        FileArchive archive = new FileArchive(jar);
+        Path cacheDir = tmp.newFolder("cache").toPath();
+        DiskDefinitionCache cache = new DiskDefinitionCache(cacheDir, Long.MAX_VALUE);
+
+        ExportReader reader = new ExportReader(1, null, cache);
+        assertFalse(reader.read(archive).isEmpty());
+
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertEquals(1, files.count());
+        }
+
+        // the cached definitions are used instead of the manifest
+        ArchiveFingerprint fingerprint;
+        try (FileInputStream in = new FileInputStream(jar)) {
+            fingerprint = ArchiveFingerprint.of(archive.getName(), ZipDirectory.read(in.getChannel()));
+        }
+        cache.put(fingerprint, BundleHeaders.NONE);
+
+        assertTrue(reader.read(archive).isEmpty());
+    }
+
+    private static BundleHeaders headers(ExportPackageDefinition... definitions) {
+        return new BundleHeaders(new HashSet<>(asList(definitions)), null, null);
+    }
+}
@@ -0,0 +1,167 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.API;
+import org.revapi.Archive;
+import org.revapi.simple.FileArchive;
+
+public class EmbeddedArchiveTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testParsesClassPath() {
+        assertEquals(asList("lib/a.jar", "lib/b.jar", "c.jar"),
+                EmbeddedArchive.classPathOf(" ., lib/a.jar;x=\"1,2\" ,/lib/b.jar,classes/,c.jar,lib/a.jar"));
+    }
+
+    @Test
+    public void testReadsEmbeddedJarsFromFile() throws Exception {
+        byte[] stored = jar("a.b.A");
+        byte[] deflated = jar("c.d.C");
+
+        FileArchive bundle = bundle(stored, deflated);
+
+        List<EmbeddedArchive> embedded = EmbeddedArchive.embeddedIn(bundle);
+        assertEquals(2, embedded.size());
+        assertEquals("lib/stored.jar", embedded.get(0).getPath());
+        assertEquals(bundle.getName() + "!/lib/deflated.jar", embedded.get(1).getName());
+
+        assertArrayEquals(stored, readAll(embedded.get(0)));
+        assertArrayEquals(deflated, readAll(embedded.get(1)));
+        assertEquals("a/b/A.class", firstEntry(embedded.get(0)));
+    }
+
+    @Test
+    public void testReadsEmbeddedJarsFromStream() throws Exception {
+        byte[] stored = jar("a.b.A");
+        byte[] deflated = jar("c.d.C");
+
+        byte[] bundleBytes = Files.readAllBytes(bundleFile(stored, deflated).toPath());
+        Archive bundle = new Archive() {
+            @Override
+            public String getName() {
+                return "streamed.jar";
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bundleBytes);
+            }
+        };
+
+        List<EmbeddedArchive> embedded = EmbeddedArchive.embeddedIn(bundle);
+        assertEquals(2, embedded.size());
+        assertArrayEquals(stored, readAll(embedded.get(0)));
+        assertArrayEquals(deflated, readAll(embedded.get(1)));
+    }
+
+    @Test
+    public void testEmbeddedArchivesExportedByBundle() throws Exception {
+        FileArchive bundle = bundle(jar("a.b.A"), jar("c.d.C"));
+        API api = EmbeddedArchive.withEmbeddedArchives(API.of(bundle).build());
+
+        List<Archive> archives = new ArrayList<>();
+        api.getArchives().forEach(archives::add);
+        assertEquals(3, archives.size());
+
+        ExportReader reader = new ExportReader(2, null, null);
+        Map<Archive, ExportIndex> indices = reader.readAll(archives);
+
+        ExportIndex index = indices.get(bundle);
+        assertEquals(PackageVerdict.EXPORTED, index.verdictOf("a.b"));
+        assertEquals(PackageVerdict.NOT_EXPORTED, index.verdictOf("c.d"));
+        assertSame(index, indices.get(archives.get(1)));
+        assertSame(index, indices.get(archives.get(2)));
+        assertSame(index, reader.read(archives.get(2)));
+    }
+
+    private FileArchive bundle(byte[] stored, byte[] deflated) throws Exception {
+        return new FileArchive(bundleFile(stored, deflated));
+    }
+
+    private File bundleFile(byte[] stored, byte[] deflated) throws Exception {
+        File file = tmp.newFile();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry(ManifestReader.MANIFEST_NAME));
+            out.write(("Manifest-Version: 1.0\r\nExport-Package: a.b\r\nBundle-ClassPath: .,lib/stored.jar,\r\n"
+                    + " lib/deflated.jar,lib/missing.jar\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+
+            ZipEntry storedEntry = new ZipEntry("lib/stored.jar");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("lib/deflated.jar"));
+            out.write(deflated);
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    /**
+     * @return a jar with a single class entry and some incompressible padding, so that the jar is larger than the
+     * buffers used to read it
+     */
+    private static byte[] jar(String className) throws Exception {
+        byte[] padding = new byte[100_000];
+        new Random(className.hashCode()).nextBytes(padding);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry(className.replace('.', '/') + ".class"));
+            out.write(padding);
+            out.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(Archive archive) throws Exception {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (InputStream in = archive.openStream()) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                ret.write(buffer, 0, read);
+            }
+        }
+        return ret.toByteArray();
+    }
+
+    private static String firstEntry(Archive archive) throws Exception {
+        try (ZipInputStream zip = new ZipInputStream(archive.openStream())) {
+            return zip.getNextEntry().getName();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.revapi.osgi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.jboss.dmr.ModelNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.API;
+import org.revapi.AnalysisContext;
+import org.revapi.CompatibilityType;
+import org.revapi.Difference;
+import org.revapi.DifferenceAnalyzer;
+import org.revapi.DifferenceSeverity;
+import org.revapi.Element;
+import org.revapi.simple.FileArchive;
+
+public class ExportPackageAnalyzerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testUnchangedExportsReportNothing() throws Exception {
+        List<Difference> diffs = analyze("a.b;version=1.0,c.d;exclude:=*Impl", "c.d;exclude:=*Impl,a.b;version=1.0");
+
+        assertTrue(diffs.toString(), diffs.isEmpty());
+    }
+
+    @Test
+    public void testAddedAndRemovedPackages() throws Exception {
+        List<Difference> diffs = analyze("a.b,c.d", "a.b,e.f");
+
+        assertEquals(2, diffs.size());
+        assertEquals("osgi.package.exportRemoved", diffs.get(0).code);
+        assertEquals("c.d", diffs.get(0).attachments.get("package"));
+        assertEquals(DifferenceSeverity.BREAKING, diffs.get(0).classification.get(CompatibilityType.BINARY));
+        assertEquals("osgi.package.exportAdded", diffs.get(1).code);
+        assertEquals("e.f", diffs.get(1).attachments.get("package"));
+    }
+
+    @Test
+    public void testVersionChanges() throws Exception {
+        List<Difference> diffs = analyze("a.b;version=1.0,c.d;version=1.0,e.f;version=2.1,g.h;version=1",
+                "a.b;version=1.1,c.d;version=2.0,e.f;version=2.0.5,g.h;version=\"1.0.0\"");
+
+        assertEquals(3, diffs.size());
+        for (Difference d : diffs) {
+            assertEquals("osgi.package.versionChanged", d.code);
+        }
+        assertEquals(DifferenceSeverity.NON_BREAKING, diffs.get(0).classification.get(CompatibilityType.SEMANTIC));
+        assertEquals(DifferenceSeverity.BREAKING, diffs.get(1).classification.get(CompatibilityType.SEMANTIC));
+        assertEquals(DifferenceSeverity.POTENTIALLY_BREAKING,
+                diffs.get(2).classification.get(CompatibilityType.SEMANTIC));
+        assertEquals("2.1", diffs.get(2).attachments.get("oldVersion"));
+        assertEquals("2.0.5", diffs.get(2).attachments.get("newVersion"));
+    }
+
+    @Test
+    public void testFilterChanges() throws Exception {
+        List<Difference> diffs = analyze("a.b;exclude:=*Impl,c.d", "a.b;exclude:=\"*Impl,*Internal\",c.d");
+
+        assertEquals(1, diffs.size());
+        assertEquals("osgi.package.filtersChanged", diffs.get(0).code);
+        assertEquals("a.b", diffs.get(0).attachments.get("package"));
+        assertEquals("*Impl,*Internal", diffs.get(0).attachments.get("newExcludes"));
+    }
+
+    @Test
+    public void testMalformedHeaderExportsNothing() throws Exception {
+        List<Difference> diffs = analyze("a.b,c.d", "a.b,c.d;exclude:*Impl");
+
+        assertEquals(2, diffs.size());
+        assertEquals("osgi.package.exportRemoved", diffs.get(0).code);
+        assertEquals("a.b", diffs.get(0).attachments.get("package"));
+        assertEquals("osgi.package.exportRemoved", diffs.get(1).code);
+        assertEquals("c.d", diffs.get(1).attachments.get("package"));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        ExportPackageAnalyzer analyzer = new ExportPackageAnalyzer();
+        analyzer.initialize(AnalysisContext.builder().build().copyWithConfiguration(new ModelNode()));
+
+        assertTrue(analyzer.getArchiveAnalyzer(API.of(bundle("old.jar", "a.b")).build()).analyze().getRoots()
+                .isEmpty());
+    }
+
+    private List<Difference> analyze(String oldExports, String newExports) throws Exception {
+        ExportPackageAnalyzer analyzer = new ExportPackageAnalyzer();
+        analyzer.initialize(AnalysisContext.builder().build()
+                .copyWithConfiguration(ModelNode.fromJSONString("{\"enabled\": true}")));
+
+        SortedSet<? extends Element> oldRoots = analyzer.getArchiveAnalyzer(API.of(bundle("old.jar", oldExports))
+                .build()).analyze().getRoots();
+        SortedSet<? extends Element> newRoots = analyzer.getArchiveAnalyzer(API.of(bundle("new.jar", newExports))
+                .build()).analyze().getRoots();
+
+        DifferenceAnalyzer differenceAnalyzer = analyzer.getDifferenceAnalyzer(null, null);
+        differenceAnalyzer.open();
+
+        // the roots are sorted by the package names, so the corresponding elements are found by merging the sets
+        List<Difference> ret = new ArrayList<>();
+        Iterator<? extends Element> oldIt = oldRoots.iterator();
+        Iterator<? extends Element> newIt = newRoots.iterator();
+        Element o = oldIt.hasNext() ? oldIt.next() : null;
+        Element n = newIt.hasNext() ? newIt.next() : null;
+        while (o != null || n != null) {
+            int cmp = o == null ? 1 : n == null ? -1 : o.compareTo(n);
+            Element oldElement = cmp <= 0 ? o : null;
+            Element newElement = cmp >= 0 ? n : null;
+
+            differenceAnalyzer.beginAnalysis(oldElement, newElement);
+            ret.addAll(differenceAnalyzer.endAnalysis(oldElement, newElement).getDifferences());
+
+            if (cmp <= 0) {
+                o = oldIt.hasNext() ? oldIt.next() : null;
+            }
+            if (cmp >= 0) {
+                n = newIt.hasNext() ? newIt.next() : null;
+            }
+        }
+
+        differenceAnalyzer.close();
+        return ret;
+    }
+
+    private FileArchive bundle(String name, String exportPackage) throws Exception {
+        File jar = tmp.newFile(name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(ManifestReader.MANIFEST_NAME));
+            out.write(("Manifest-Version: 1.0\r\nExport-Package: " + exportPackage + "\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return new FileArchive(jar);
+    }
+}
@@ -0,0 +1,141 @@
+package org.revapi.osgi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.junit.Test;
+
+public class ExportPackageByteParserTest {
+
+    @Test
+    public void testFindsHeaderInMainSection() {
+        String manifest = "Manifest-Version: 1.0\r\n"
+                + "export-package: a.b,\r\n"
+                + " c.d\r\n"
+                + "Bundle-Name: x\r\n"
+                + "\r\n"
+                + "Name: e/f\r\n"
+                + "Export-Package: e.f\r\n"
+                + "\r\n";
+
+        assertEquals("a.b,c.d", mainAttribute(manifest));
+        assertNull(mainAttribute("Manifest-Version: 1.0\nExport-Packages: a\n\nExport-Package: b\n"));
+        assertEquals("b", mainAttribute("Export-Package: a\nExport-Package: b\n"));
+        assertEquals("a.b", mainAttribute("Export-Package: a.\r b"));
+    }
+
+    @Test
+    public void testInternsPackageNames() {
+        Set<ExportPackageDefinition> first = parse(manifest("a.b.c;version=1.0"));
+        Set<ExportPackageDefinition> second = parse(manifest("a.b.c"));
+
+        assertSame(first.iterator().next().getPackageNames().iterator().next(),
+                second.iterator().next().getPackageNames().iterator().next());
+    }
+
+    @Test
+    public void testCountsAllClauses() {
+        String header = "a.b;version=1,c.d,a.b;version=1";
+        byte[] value = header.getBytes(StandardCharsets.UTF_8);
+
+        Set<ExportPackageDefinition> output = new HashSet<>();
+        assertEquals(3, ExportPackageByteParser.parseValue(value, value.length, output));
+        assertEquals(2, output.size());
+
+        // the clauses equal to the definitions already in the output are counted too
+        assertEquals(3, ExportPackageByteParser.parseValue(value, value.length, output));
+        assertEquals(3, ExportPackageEntryParser.parse(header, output));
+    }
+
+    @Test
+    public void testNonAsciiNames() {
+        String header = "\u017elu\u0165ou\u010dk\u00fd.k\u016f\u0148;include:=\"\u00fap\u011bl*\",\u3000b";
+        assertEquals(stringParser(header), parse(manifest(header)));
+    }
+
+    @Test
+    public void testMatchesStringParserOnRandomHeaders() throws Exception {
+        String alphabet = "abcXY_$.;,:=\"\\* \u00e9\u3000";
+        String[] fragments = {"include:=", "exclude:=", "version=", "uses:=", ";", ",", "\"", "a.b.c", "X*", "*Y"};
+        Random random = new Random(42);
+
+        for (int n = 0; n < 20_000; ++n) {
+            StringBuilder header = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; ++i) {
+                if (random.nextInt(3) == 0) {
+                    header.append(fragments[random.nextInt(fragments.length)]);
+                } else {
+                    header.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+
+            String directive = header.toString().trim();
+            byte[] manifest = manifest(directive);
+
+            // the manifest as the JDK sees it, to make sure the folding is right
+            assertEquals(directive, new Manifest(new ByteArrayInputStream(manifest)).getMainAttributes()
+                    .getValue("Export-Package"));
+
+            Set<ExportPackageDefinition> expected;
+            try {
+                expected = stringParser(directive);
+            } catch (IllegalArgumentException e) {
+                try {
+                    parse(manifest);
+                    fail("The byte parser should have failed on '" + directive + "'.");
+                } catch (IllegalArgumentException ignored) {
+                    // expected
+                }
+                continue;
+            }
+
+            assertEquals("Different parse results of '" + directive + "'.", expected, parse(manifest));
+        }
+    }
+
+    /**
+     * Writes the manifest using the JDK so that the long headers are folded into the continuation lines.
+     */
+    static byte[] manifest(String exportPackage) {
+        try {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Export-Package", exportPackage);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            manifest.write(out);
+            return out.toByteArray();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static Set<ExportPackageDefinition> parse(byte[] manifest) {
+        Set<ExportPackageDefinition> ret = new HashSet<>();
+        ExportPackageByteParser.parse(manifest, ret);
+        return ret;
+    }
+
+    private static Set<ExportPackageDefinition> stringParser(String directive) {
+        Set<ExportPackageDefinition> ret = new HashSet<>();
+        ExportPackageEntryParser.parse(directive, ret);
+        return ret;
+    }
+
+    private static String mainAttribute(String manifest) {
+        byte[] value = ExportPackageByteParser.findMainAttribute(manifest.getBytes(StandardCharsets.UTF_8),
+                "Export-Package".getBytes(StandardCharsets.US_ASCII));
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
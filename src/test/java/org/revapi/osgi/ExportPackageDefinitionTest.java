@@ -0,0 +1,94 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ExportPackageDefinitionTest {
+
+    @Test
+    public void testEqualityIgnoresOrderAndDuplicates() {
+        ExportPackageDefinition a = new ExportPackageDefinition(asList("a.b", "c.d", "a.b"), asList("X*", "*Y"),
+                emptyList());
+        ExportPackageDefinition b = new ExportPackageDefinition(asList("c.d", "a.b"), asList("*Y", "X*", "*Y"),
+                emptyList());
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(new HashSet<>(asList("a.b", "c.d")), a.getPackageNames());
+        assertEquals(2, a.getIncludes().size());
+        assertTrue(a.getIncludes().contains("X*"));
+        assertTrue(a.getExcludes().isEmpty());
+    }
+
+    @Test
+    public void testIncludesAndExcludesNotInterchangeable() {
+        ExportPackageDefinition include = new ExportPackageDefinition(asList("a"), asList("X"), emptyList());
+        ExportPackageDefinition exclude = new ExportPackageDefinition(asList("a"), emptyList(), asList("X"));
+
+        assertNotEquals(include, exclude);
+        assertTrue(include.exportsClass("X"));
+        assertFalse(include.exportsClass("Y"));
+        assertFalse(exclude.exportsClass("X"));
+        assertTrue(exclude.exportsClass("Y"));
+    }
+
+    @Test
+    public void testNamesInterned() {
+        ExportPackageDefinition a = new ExportPackageDefinition(asList(new String("a.b")), asList(new String("X*")),
+                emptyList());
+        ExportPackageDefinition b = new ExportPackageDefinition(asList(new String("a.b")), asList(new String("X*")),
+                emptyList());
+
+        assertSame(a.getPackageNames().iterator().next(), b.getPackageNames().iterator().next());
+        assertSame(a.getIncludes().iterator().next(), b.getIncludes().iterator().next());
+    }
+
+    @Test
+    public void testLargeHeaderSharesNames() {
+        Set<ExportPackageDefinition> first = ExportPackageByteParserTest.parse(largeManifest());
+        Set<ExportPackageDefinition> second = ExportPackageByteParserTest.parse(largeManifest());
+
+        assertEquals(10_000, first.size());
+        assertEquals(first, second);
+
+        Map<ExportPackageDefinition, ExportPackageDefinition> secondByEquality = new HashMap<>();
+        for (ExportPackageDefinition def : second) {
+            secondByEquality.put(def, def);
+        }
+
+        String exclude = first.iterator().next().getExcludes().iterator().next();
+        for (ExportPackageDefinition def : first) {
+            ExportPackageDefinition other = secondByEquality.get(def);
+
+            assertSame(def.getPackageNames().iterator().next(), other.getPackageNames().iterator().next());
+            assertSame(exclude, def.getExcludes().iterator().next());
+            assertSame(exclude, other.getExcludes().iterator().next());
+            assertTrue(def.getIncludes().isEmpty());
+        }
+    }
+
+    private static byte[] largeManifest() {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < 10_000; ++i) {
+            if (i > 0) {
+                header.append(',');
+            }
+            header.append("com.acme.product.module").append(i / 100).append(".p").append(i)
+                    .append(";exclude:=\"*Impl\"");
+        }
+        return ExportPackageByteParserTest.manifest(header.toString());
+    }
+}
@@ -2,16 +2,17 @@ package org.revapi.osgi;
 
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
-import static java.util.stream.Collectors.toSet;
+import static java.util.Collections.singletonMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
 
 import org.junit.Test;
 
@@ -55,11 +56,35 @@ public class ExportPackageEntryParserTest {
                  "freemarker.template,javax.naming.ldap,org.springframework.ldap.core\",com.test.impl;version=\"23.0.4\";uses:=\"com.fasterxml.jackson" +
                  ".annotation,com.fasterxml.jackson.databind.annotation,freemarker.template,javax.naming.ldap,org.springframework.ldap.core\"", exports -> {
 
+            assertEquals(2, exports.size());
+            for (ExportPackageDefinition def : exports) {
+                assertEquals(1, def.getPackageNames().size());
+                assertEquals("23.0.4", def.getVersion());
+                assertTrue(def.getExcludes().isEmpty());
+                assertTrue(def.getIncludes().isEmpty());
+            }
+        });
+    }
+
+    @Test
+    public void testKeepsAttributesOfEachExport() {
+        test("a.b;version=1.0;x=\"y;\\\"z\",c.d;version=\"2.0\";exclude:=*Impl,e.f;version=3", exports -> {
+            ExportPackageDefinition ab = new ExportPackageDefinition(setOf("a.b"), emptySet(), emptySet(),
+                    mapOf("version", "1.0", "x", "y;\"z"));
+            ExportPackageDefinition cd = new ExportPackageDefinition(setOf("c.d"), emptySet(), setOf("*Impl"),
+                    mapOf("version", "2.0"));
+            ExportPackageDefinition ef = new ExportPackageDefinition(setOf("e.f"), emptySet(), emptySet(),
+                    mapOf("version", "3"));
+
+            assertEquals(setOf(ab, cd, ef), exports);
+        });
+    }
+
+    @Test
+    public void testKeepsExportWithUnterminatedAttributeQuote() {
+        test("a.b;version=\"1.0", exports -> {
             assertEquals(1, exports.size());
-            ExportPackageDefinition def = exports.iterator().next();
-            assertEquals(setOf("com.test.api", "com.test.impl"), def.getPackageNames());
-            assertTrue(def.getExcludes().isEmpty());
-            assertTrue(def.getIncludes().isEmpty());
+            assertEquals(setOf("a.b"), exports.iterator().next().getPackageNames());
         });
     }
 
@@ -70,8 +95,7 @@ public class ExportPackageEntryParserTest {
             ExportPackageDefinition def = exports.iterator().next();
             assertEquals(setOf("a.b.c"), def.getPackageNames());
             assertEquals(1, def.getIncludes().size());
-            Pattern className = def.getIncludes().iterator().next();
-            assertEquals("X.*", className.pattern());
+            assertEquals("X*", def.getIncludes().iterator().next());
         });
     }
 
@@ -82,9 +106,9 @@ public class ExportPackageEntryParserTest {
             ExportPackageDefinition def = exports.iterator().next();
             assertEquals(setOf("a.b.c"), def.getPackageNames());
             assertEquals(2, def.getIncludes().size());
-            assertEquals(setOf("X.*",".*Y"), def.getIncludes().stream().map(Pattern::pattern).collect(toSet()));
+            assertEquals(setOf("X*", "*Y"), def.getIncludes());
             assertEquals(1, def.getExcludes().size());
-            assertEquals("A", def.getExcludes().iterator().next().pattern());
+            assertEquals("A", def.getExcludes().iterator().next());
         });
     }
 
@@ -95,7 +119,7 @@ public class ExportPackageEntryParserTest {
             ExportPackageDefinition def = exports.iterator().next();
             assertEquals(setOf("a.b.c", "d.e.f"), def.getPackageNames());
             assertEquals(2, def.getIncludes().size());
-            assertEquals(setOf("X.*",".*Y"), def.getIncludes().stream().map(Pattern::pattern).collect(toSet()));
+            assertEquals(setOf("X*", "*Y"), def.getIncludes());
             assertTrue(def.getExcludes().isEmpty());
         });
     }
@@ -107,9 +131,9 @@ public class ExportPackageEntryParserTest {
             ExportPackageDefinition def = exports.iterator().next();
             assertEquals(setOf("a.b.c", "d.e.f"), def.getPackageNames());
             assertEquals(2, def.getIncludes().size());
-            assertEquals(setOf("X.*",".*Y"), def.getIncludes().stream().map(Pattern::pattern).collect(toSet()));
+            assertEquals(setOf("X*", "*Y"), def.getIncludes());
             assertEquals(1, def.getExcludes().size());
-            assertEquals("A", def.getExcludes().iterator().next().pattern());
+            assertEquals("A", def.getExcludes().iterator().next());
         });
     }
 
@@ -136,8 +160,8 @@ public class ExportPackageEntryParserTest {
     @Test
     public void testParsesMultipleExportsWithMultiplePackagesWithSingleDirective() {
         test("a.b.c;d.e.f;include:=X,g.h.i;j.k.l;exclude:=*Y", exports -> {
-            ExportPackageDefinition ad = new ExportPackageDefinition(setOf("a.b.c", "d.e.f"), setOf(Pattern.compile("X")), emptySet());
-            ExportPackageDefinition gj = new ExportPackageDefinition(setOf("g.h.i", "j.k.l"), emptySet(), setOf(Pattern.compile(".*Y")));
+            ExportPackageDefinition ad = new ExportPackageDefinition(setOf("a.b.c", "d.e.f"), setOf("X"), emptySet());
+            ExportPackageDefinition gj = new ExportPackageDefinition(setOf("g.h.i", "j.k.l"), emptySet(), setOf("*Y"));
 
             assertEquals(setOf(ad, gj), exports);
         });
@@ -146,8 +170,10 @@ public class ExportPackageEntryParserTest {
     @Test
     public void testParsesMultipleExportsWithMultiplePackagesWithMultipleDirectives() {
         test("a.b.c;d.e.f;include:=X;someOther:=blah;attr=bar;exclude:=*X;,g.h.i;j.k.l;include:=Y;someOther:=blah;attr=bar;exclude:=*Y", exports -> {
-            ExportPackageDefinition ad = new ExportPackageDefinition(setOf("a.b.c", "d.e.f"), setOf(Pattern.compile("X")), setOf(Pattern.compile(".*X")));
-            ExportPackageDefinition gj = new ExportPackageDefinition(setOf("g.h.i", "j.k.l"), setOf(Pattern.compile("Y")), setOf(Pattern.compile(".*Y")));
+            ExportPackageDefinition ad = new ExportPackageDefinition(setOf("a.b.c", "d.e.f"), setOf("X"), setOf("*X"),
+                    singletonMap("attr", "bar"));
+            ExportPackageDefinition gj = new ExportPackageDefinition(setOf("g.h.i", "j.k.l"), setOf("Y"), setOf("*Y"),
+                    singletonMap("attr", "bar"));
 
             assertEquals(setOf(ad, gj), exports);
         });
@@ -158,6 +184,20 @@ public class ExportPackageEntryParserTest {
         Set<ExportPackageDefinition> res = new HashSet<>();
         ExportPackageEntryParser.parse(directive, res);
         test.accept(res);
+
+        // the byte parser must give the same results, including from the headers folded into multiple lines
+        Set<ExportPackageDefinition> fromBytes = ExportPackageByteParserTest.parse(
+                ExportPackageByteParserTest.manifest(directive));
+        assertEquals(res, fromBytes);
+        test.accept(fromBytes);
+    }
+
+    private static Map<String, String> mapOf(String... namesAndValues) {
+        Map<String, String> ret = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            ret.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return ret;
     }
 
     private static <T> Set<T> setOf(T... stuff) {
@@ -0,0 +1,175 @@
+package org.revapi.osgi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.jboss.dmr.ModelNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.AnalysisContext;
+import org.revapi.Element;
+import org.revapi.ElementForest;
+import org.revapi.java.spi.JavaTypeElement;
+import org.revapi.java.test.support.Jar;
+
+public class ExportPackageFilterConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+
+    @Rule
+    public Jar jar = new Jar();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentApplies() throws Exception {
+        SyntheticBundle bundle = new SyntheticBundle().packages(40).classesPerPackage(25).exportEvery(2)
+                .excludes("*Impl");
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{\"cache\": {\"inMemoryEntries\": 0}}",
+                bundle.build(jar, tmp.getRoot().toPath()));
+        ElementForest forest = ExportPackageFilterTest.analyze(ctx);
+
+        List<Element> types = forest.getRoots().stream().filter(e -> e instanceof JavaTypeElement)
+                .collect(Collectors.toList());
+
+        ExportPackageFilter reference = new ExportPackageFilter();
+        reference.initialize(ctx);
+        boolean[] expected = new boolean[types.size()];
+        int exported = 0;
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = reference.applies(types.get(i));
+            exported += expected[i] ? 1 : 0;
+        }
+        assertEquals(bundle.getExportedTypeCount(), exported);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; ++round) {
+                // a fresh filter in each round so that the threads also race on reading the archives and filling
+                // the caches
+                ExportPackageFilter filter = new ExportPackageFilter();
+                filter.initialize(ctx);
+
+                CyclicBarrier start = new CyclicBarrier(THREADS);
+                List<Future<boolean[]>> results = new ArrayList<>(THREADS);
+                for (int t = 0; t < THREADS; ++t) {
+                    Random random = new Random(round * THREADS + t);
+                    results.add(executor.submit(() -> {
+                        List<Integer> order = new ArrayList<>(types.size());
+                        for (int i = 0; i < types.size(); ++i) {
+                            order.add(i);
+                        }
+                        Collections.shuffle(order, random);
+
+                        boolean[] ret = new boolean[types.size()];
+                        start.await();
+                        for (int i : order) {
+                            filter.shouldDescendInto(types.get(i));
+                            ret[i] = filter.applies(types.get(i));
+                        }
+                        return ret;
+                    }));
+                }
+
+                for (Future<boolean[]> result : results) {
+                    assertArrayEquals(expected, result.get(1, TimeUnit.MINUTES));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBatchEvaluationMatchesApplies() throws Exception {
+        SyntheticBundle bundle = new SyntheticBundle().packages(40).classesPerPackage(25).exportEvery(2)
+                .excludes("*Impl");
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{\"cache\": {\"inMemoryEntries\": 0}}",
+                bundle.build(jar, tmp.getRoot().toPath()));
+        ElementForest forest = ExportPackageFilterTest.analyze(ctx);
+
+        List<JavaTypeElement> types = forest.getRoots().stream().filter(e -> e instanceof JavaTypeElement)
+                .map(e -> (JavaTypeElement) e).collect(Collectors.toList());
+
+        ExportPackageFilter reference = new ExportPackageFilter();
+        reference.initialize(ctx);
+        boolean[] expectedApplies = new boolean[types.size()];
+        boolean[] expectedDescends = new boolean[types.size()];
+        for (int i = 0; i < types.size(); ++i) {
+            expectedApplies[i] = reference.applies(types.get(i));
+            expectedDescends[i] = reference.shouldDescendInto(types.get(i));
+        }
+
+        ExportPackageFilter fromForest = new ExportPackageFilter();
+        fromForest.initialize(ctx);
+        fromForest.evaluate(forest);
+
+        ExportPackageFilter fromTypes = new ExportPackageFilter();
+        fromTypes.initialize(ctx);
+        fromTypes.evaluate(types);
+
+        for (ExportPackageFilter filter : new ExportPackageFilter[]{fromForest, fromTypes}) {
+            boolean[] applies = new boolean[types.size()];
+            boolean[] descends = new boolean[types.size()];
+            for (int i = 0; i < types.size(); ++i) {
+                applies[i] = filter.applies(types.get(i));
+                descends[i] = filter.shouldDescendInto(types.get(i));
+            }
+            assertArrayEquals(expectedApplies, applies);
+            assertArrayEquals(expectedDescends, descends);
+        }
+    }
+
+    @Test
+    public void testEvaluatedDecisionsUsed() throws Exception {
+        SyntheticBundle bundle = new SyntheticBundle().packages(40).classesPerPackage(25).exportEvery(2)
+                .excludes("*Impl").withMembers();
+        Path report = tmp.getRoot().toPath().resolve("metrics.json");
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{\"cache\": {\"inMemoryEntries\": 0}, \"metrics\": "
+                + "{\"enabled\": true, \"reportFile\": " + new ModelNode(report.toString()).toJSONString(true) + "}}",
+                bundle.build(jar, tmp.getRoot().toPath()));
+        ElementForest forest = ExportPackageFilterTest.analyze(ctx);
+
+        ExportPackageFilter filter = new ExportPackageFilter();
+        filter.initialize(ctx);
+        filter.evaluate(forest);
+
+        // walks the forest like the analysis does
+        Deque<Element> todo = new ArrayDeque<>(forest.getRoots());
+        while (!todo.isEmpty()) {
+            Element element = todo.pop();
+            filter.applies(element);
+            if (filter.shouldDescendInto(element)) {
+                todo.addAll(element.getChildren());
+            }
+        }
+        filter.close();
+
+        // only evaluate() looks up the verdicts, once for each of the top-level types and for each of the nested
+        // types of the 20 exported packages, because it doesn't descend into the types of the other packages
+        ModelNode metrics = ModelNode.fromJSONString(new String(Files.readAllBytes(report), StandardCharsets.UTF_8));
+        long lookups = metrics.get("verdictCache", "hits").asLong() + metrics.get("verdictCache", "misses").asLong();
+        assertEquals(bundle.getTypeCount() + 20 * 25, lookups);
+    }
+}
@@ -0,0 +1,123 @@
+package org.revapi.osgi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.AnalysisContext;
+import org.revapi.Element;
+import org.revapi.ElementForest;
+import org.revapi.java.spi.JavaTypeElement;
+import org.revapi.java.test.support.Jar;
+
+/**
+ * Runs the filter end to end on large synthetic bundles and checks that it stays within the time and heap budgets.
+ * An accidental quadratic behavior or per-element caching of strings makes them fail.
+ *
+ * <p>The normal build checks a few thousand types against a run on a bundle several times smaller, so that the budgets
+ * don't depend on the speed of the machine. The 100k types test takes minutes mostly due to the compilation and the
+ * analysis of the bundle and its absolute budgets are only meaningful on a machine that is not busy with other work,
+ * so it only runs with the {@code scale-tests} profile.
+ */
+public class ExportPackageFilterScaleTest {
+    static final String LARGE_SCALE_TESTS_PROPERTY = "revapi.osgi.largeScaleTests";
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Rule
+    public Jar jar = new Jar();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testScalesLinearly() throws Exception {
+        Measurement small = measure(new SyntheticBundle().packages(10).classesPerPackage(50).exportEvery(2)
+                .excludes("*Impl"));
+        Measurement large = measure(new SyntheticBundle().packages(80).classesPerPackage(50).exportEvery(2)
+                .excludes("*Impl"));
+
+        // linear growth would be the ratio, the rest absorbs the noise of the timer and the GC
+        long ratio = large.types / small.types;
+        long maxMillis = 4 * ratio * small.millis + 250;
+        long maxHeap = 4 * ratio * Math.max(small.heapBytes, MEGABYTE);
+
+        assertTrue("Filtering " + large.types + " types took " + large.millis + "ms, more than " + maxMillis
+                + "ms budgeted from " + small.millis + "ms for " + small.types + " types.", large.millis <= maxMillis);
+        assertTrue("Filtering " + large.types + " types retained " + large.heapBytes / MEGABYTE
+                + "MB of heap, more than " + maxHeap / MEGABYTE + "MB budgeted from " + small.heapBytes / MEGABYTE + "MB for " + small.types
+                + " types.", large.heapBytes <= maxHeap);
+    }
+
+    @Test
+    public void test100kTypes() throws Exception {
+        assumeTrue(Boolean.getBoolean(LARGE_SCALE_TESTS_PROPERTY));
+
+        Measurement measurement = measure(new SyntheticBundle().packages(1000).classesPerPackage(100).exportEvery(3)
+                .includes("C1*", "C2*", "*Impl").excludes("*5Impl"));
+
+        assertTrue("Filtering " + measurement.types + " types took " + measurement.millis + "ms, more than the budget "
+                + "of 10000ms.", measurement.millis <= 10_000);
+        assertTrue("Filtering " + measurement.types + " types retained " + measurement.heapBytes / MEGABYTE
+                + "MB of heap, more than the budget of 64MB.", measurement.heapBytes <= 64 * MEGABYTE);
+    }
+
+    private Measurement measure(SyntheticBundle bundle) throws Exception {
+        AnalysisContext ctx = ExportPackageFilterTest.context("{}", bundle.build(jar, tmp.newFolder().toPath()));
+        ElementForest forest = ExportPackageFilterTest.analyze(ctx);
+
+        List<Element> types = forest.getRoots().stream().filter(e -> e instanceof JavaTypeElement)
+                .collect(Collectors.toList());
+        assertEquals(bundle.getTypeCount(), types.size());
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+
+        ExportPackageFilter filter = new ExportPackageFilter();
+        filter.initialize(ctx);
+
+        int exported = 0;
+        for (Element type : types) {
+            if (filter.applies(type)) {
+                ++exported;
+            }
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long heapBytes = usedHeap() - heapBefore;
+
+        assertEquals(bundle.getExportedTypeCount(), exported);
+
+        // keep the filter and its caches reachable until the heap is measured
+        filter.close();
+
+        return new Measurement(types.size(), millis, heapBytes);
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Measurement {
+        final long types;
+        final long millis;
+        final long heapBytes;
+
+        Measurement(long types, long millis, long heapBytes) {
+            this.types = types;
+            this.millis = millis;
+            this.heapBytes = heapBytes;
+        }
+    }
+}
@@ -1,18 +1,30 @@
 package org.revapi.osgi;
 
 import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toList;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.jboss.dmr.ModelNode;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.revapi.API;
 import org.revapi.AnalysisContext;
+import org.revapi.Archive;
 import org.revapi.ArchiveAnalyzer;
 import org.revapi.ElementForest;
 import org.revapi.java.JavaApiAnalyzer;
@@ -25,6 +37,9 @@ public class ExportPackageFilterTest {
     @Rule
     public Jar jar = new Jar();
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void testNoExportsMeanEverythingIncluded() throws Exception {
         Jar.BuildOutput env = jar.from()
@@ -78,24 +93,248 @@ public class ExportPackageFilterTest {
         assertFalse(filter.applies(unexportedClass));
     }
 
-    private Map.Entry<ElementForest, ExportPackageFilter> prepare(Jar.BuildOutput build) {
-        API oldApi = API.of(new FileArchive(build.jarFile())).build();
-        API newApi = API.of(new FileArchive(build.jarFile())).build();
+    @Test
+    public void testExcludedClassesFilteredOut() throws Exception {
+        Jar.BuildOutput env = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "exported/ExportedImpl.java",
+                        "UnexportedClass.java")
+                .classPathResources("/test-bundle-filtered/", "META-INF/MANIFEST.MF")
+                .build();
 
-        AnalysisContext ctx = AnalysisContext.builder().withOldAPI(oldApi).withNewAPI(newApi).build();
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter = prepare(env);
+        ElementForest forest = classesAndFilter.getKey();
+        ExportPackageFilter filter = classesAndFilter.getValue();
 
-        // make "extension specific" configuration
-        ctx = ctx.copyWithConfiguration(ModelNode.fromString("{}"));
+        assertTrue(filter.applies(findClass(forest, "exported.ExportedClass")));
+        assertFalse(filter.applies(findClass(forest, "exported.ExportedImpl")));
+        assertFalse(filter.applies(findClass(forest, "UnexportedClass")));
+    }
 
-        JavaApiAnalyzer apiAnalyzer = new JavaApiAnalyzer(emptySet());
-        apiAnalyzer.initialize(ctx);
-        ArchiveAnalyzer analyzer = apiAnalyzer.getArchiveAnalyzer(oldApi);
+    @Test
+    public void testUnexportedPackagesNotDescendedInto() throws Exception {
+        Jar.BuildOutput env = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "exported/ExportedImpl.java",
+                        "UnexportedClass.java")
+                .classPathResources("/test-bundle-filtered/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter = prepare(env);
+        ElementForest forest = classesAndFilter.getKey();
+        ExportPackageFilter filter = classesAndFilter.getValue();
+
+        assertTrue(filter.shouldDescendInto(findClass(forest, "exported.ExportedClass")));
+        assertTrue(filter.shouldDescendInto(findClass(forest, "exported.ExportedImpl")));
+        assertFalse(filter.shouldDescendInto(findClass(forest, "UnexportedClass")));
+    }
+
+    @Test
+    public void testExportsScopedToTheirArchive() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Jar.BuildOutput plainJar = jar.from()
+                .classPathSources("/test-plain/", "plain/PlainClass.java")
+                .build();
 
-        ElementForest forest = analyzer.analyze();
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter = prepare(bundle, plainJar);
+        ElementForest forest = classesAndFilter.getKey();
+        ExportPackageFilter filter = classesAndFilter.getValue();
+
+        assertTrue(filter.applies(findClass(forest, "exported.ExportedClass")));
+        assertFalse(filter.applies(findClass(forest, "UnexportedClass")));
+        assertTrue(filter.applies(findClass(forest, "plain.PlainClass")));
+    }
+
+    @Test
+    public void testPackagePatterns() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Jar.BuildOutput plainJar = jar.from()
+                .classPathSources("/test-plain/", "plain/PlainClass.java")
+                .build();
+
+        Map.Entry<ElementForest, ExportPackageFilter> augmented =
+                prepare("{\"packages\": {\"patterns\": [\"plain.*\"]}}", bundle, plainJar);
+        assertTrue(augmented.getValue().applies(findClass(augmented.getKey(), "exported.ExportedClass")));
+        assertFalse(augmented.getValue().applies(findClass(augmented.getKey(), "UnexportedClass")));
+        assertTrue(augmented.getValue().applies(findClass(augmented.getKey(), "plain.PlainClass")));
+
+        Map.Entry<ElementForest, ExportPackageFilter> overridden = prepare(
+                "{\"packages\": {\"patterns\": [\"!exported\", \"*\"], \"mode\": \"override\"}}",
+                bundle, plainJar);
+        assertFalse(overridden.getValue().applies(findClass(overridden.getKey(), "exported.ExportedClass")));
+        assertFalse(overridden.getValue().shouldDescendInto(findClass(overridden.getKey(), "exported.ExportedClass")));
+        assertTrue(overridden.getValue().applies(findClass(overridden.getKey(), "UnexportedClass")));
+        assertTrue(overridden.getValue().applies(findClass(overridden.getKey(), "plain.PlainClass")));
+    }
+
+    @Test
+    public void testArchivesReadInParallel() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Jar.BuildOutput plainJar = jar.from()
+                .classPathSources("/test-plain/", "plain/PlainClass.java")
+                .build();
+
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter =
+                prepare("{\"parallelism\": 4}", bundle, plainJar);
+        ElementForest forest = classesAndFilter.getKey();
+        ExportPackageFilter filter = classesAndFilter.getValue();
+
+        assertTrue(filter.applies(findClass(forest, "exported.ExportedClass")));
+        assertFalse(filter.applies(findClass(forest, "UnexportedClass")));
+        assertTrue(filter.applies(findClass(forest, "plain.PlainClass")));
+    }
+
+    @Test
+    public void testArchivesOfBothApisReadTogetherOnFirstUse() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        AtomicInteger oldOpens = new AtomicInteger();
+        AtomicInteger newOpens = new AtomicInteger();
+        API oldApi = API.of(new CountingArchive(new FileArchive(bundle.jarFile()), oldOpens)).build();
+        API newApi = API.of(new CountingArchive(new FileArchive(bundle.jarFile()), newOpens)).build();
+
+        AnalysisContext ctx = AnalysisContext.builder().withOldAPI(oldApi).withNewAPI(newApi).build()
+                .copyWithConfiguration(ModelNode.fromJSONString("{\"cache\": {\"inMemoryEntries\": 0}}"));
+        ElementForest forest = analyze(ctx);
+        oldOpens.set(0);
+        newOpens.set(0);
+
+        ExportPackageFilter filter = new ExportPackageFilter();
+        filter.initialize(ctx);
+
+        assertEquals(0, oldOpens.get());
+        assertEquals(0, newOpens.get());
+
+        assertTrue(filter.applies(findClass(forest, "exported.ExportedClass")));
+        assertFalse(filter.applies(findClass(forest, "UnexportedClass")));
+
+        assertEquals(1, oldOpens.get());
+        assertEquals(1, newOpens.get());
+    }
+
+    @Test
+    public void testMetricsReported() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Path report = tmp.getRoot().toPath().resolve("reports/metrics.json");
+
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter = prepare(
+                "{\"cache\": {\"inMemoryEntries\": 0}, \"metrics\": {\"enabled\": true, \"reportFile\": "
+                        + new ModelNode(report.toString()).toJSONString(true) + "}}", bundle);
+        ElementForest forest = classesAndFilter.getKey();
+        ExportPackageFilter filter = classesAndFilter.getValue();
+
+        assertTrue(filter.applies(findClass(forest, "exported.ExportedClass")));
+        assertFalse(filter.applies(findClass(forest, "UnexportedClass")));
+        filter.close();
+
+        ModelNode metrics = ModelNode.fromJSONString(new String(Files.readAllBytes(report), StandardCharsets.UTF_8));
+        assertEquals(1, metrics.get("applies", "accepted").asLong());
+        assertEquals(1, metrics.get("applies", "rejected").asLong());
+        // the archives of both APIs are read, the header of the second one is the same as of the first one
+        assertEquals(2, metrics.get("archives").asList().size());
+        assertEquals(1, metrics.get("totals", "sources", "parsed").asLong());
+        assertEquals(1, metrics.get("totals", "sources", "deduplicated").asLong());
+    }
+
+    @Test
+    public void testMalformedHeaderExportsEverything() throws Exception {
+        File root = tmp.newFolder("malformed");
+        File manifest = new File(root, "META-INF/MANIFEST.MF");
+        Files.createDirectories(manifest.toPath().getParent());
+        Files.write(manifest.toPath(), "Manifest-Version: 1.0\r\nExport-Package: exported;exclude:*Impl\r\n\r\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .fileResources(root, manifest)
+                .build();
+
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter = prepare(bundle);
+        ElementForest forest = classesAndFilter.getKey();
+        ExportPackageFilter filter = classesAndFilter.getValue();
+
+        // the archive is read lazily, so the header is first parsed here
+        assertTrue(filter.shouldDescendInto(findClass(forest, "UnexportedClass")));
+        assertTrue(filter.applies(findClass(forest, "UnexportedClass")));
+        assertTrue(filter.applies(findClass(forest, "exported.ExportedClass")));
+    }
+
+    private static JavaTypeElement findClass(ElementForest forest, String className) {
+        return forest.getRoots().stream()
+                .filter(t -> ("class " + className).equals(t.getFullHumanReadableString()))
+                .findFirst()
+                .map(t -> (JavaTypeElement) t)
+                .orElseThrow(() -> new AssertionError("Should have found the '" + className + "'"));
+    }
+
+    private static final class CountingArchive implements Archive {
+        private final Archive archive;
+        private final AtomicInteger openCount;
+
+        CountingArchive(Archive archive, AtomicInteger openCount) {
+            this.archive = archive;
+            this.openCount = openCount;
+        }
+
+        @Override
+        public String getName() {
+            return archive.getName();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            openCount.incrementAndGet();
+            return archive.openStream();
+        }
+    }
+
+    static Map.Entry<ElementForest, ExportPackageFilter> prepare(Jar.BuildOutput... builds) {
+        return prepare("{}", builds);
+    }
+
+    static Map.Entry<ElementForest, ExportPackageFilter> prepare(String configuration, Jar.BuildOutput... builds) {
+        AnalysisContext ctx = context(configuration, builds);
+
+        ElementForest forest = analyze(ctx);
 
         ExportPackageFilter filter = new ExportPackageFilter();
         filter.initialize(ctx);
 
         return new AbstractMap.SimpleImmutableEntry<>(forest, filter);
     }
+
+    static AnalysisContext context(String configuration, Jar.BuildOutput... builds) {
+        API oldApi = API.of(Stream.of(builds).map(b -> new FileArchive(b.jarFile())).collect(toList())).build();
+        API newApi = API.of(Stream.of(builds).map(b -> new FileArchive(b.jarFile())).collect(toList())).build();
+
+        AnalysisContext ctx = AnalysisContext.builder().withOldAPI(oldApi).withNewAPI(newApi).build();
+
+        // make "extension specific" configuration
+        return ctx.copyWithConfiguration(ModelNode.fromJSONString(configuration));
+    }
+
+    static ElementForest analyze(AnalysisContext ctx) {
+        JavaApiAnalyzer apiAnalyzer = new JavaApiAnalyzer(emptySet());
+        apiAnalyzer.initialize(ctx);
+        ArchiveAnalyzer analyzer = apiAnalyzer.getArchiveAnalyzer(ctx.getOldApi());
+
+        return analyzer.analyze();
+    }
 }
@@ -0,0 +1,163 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.Archive;
+import org.revapi.simple.FileArchive;
+
+public class ExportReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSameHeaderParsedOnce() throws Exception {
+        Archive oldBundle = bundle("old.jar", "Export-Package: a.b,c.d;exclude:=\"*Impl\"\r\n", "1.0");
+        Archive newBundle = bundle("new.jar", "Export-Package: a.b,c.d;excl\r\n ude:=\"*Impl\"\r\n", "2.0");
+
+        ExportReader reader = new ExportReader(1, null, null);
+
+        ExportIndex oldIndex = reader.read(oldBundle);
+        assertFalse(oldIndex.isEmpty());
+        assertSame(oldIndex, reader.read(newBundle));
+    }
+
+    @Test
+    public void testEquivalentHeadersShareIndex() throws Exception {
+        Archive oldBundle = bundle("old.jar", "Export-Package: a.b,c.d\r\n", "1.0");
+        Archive newBundle = bundle("new.jar", "Export-Package: c.d, a.b\r\n", "2.0");
+
+        ExportReader reader = new ExportReader(1, null, null);
+
+        assertSame(reader.read(oldBundle), reader.read(newBundle));
+    }
+
+    @Test
+    public void testAttributesStrippedOncePerHeader() {
+        BundleHeaders parsed = new BundleHeaders(new HashSet<>(asList(
+                new ExportPackageDefinition(singleton("a.b"), emptyList(), emptyList(), singletonMap("version", "1.0")),
+                new ExportPackageDefinition(singleton("c.d"), emptyList(), emptyList()))), null, null);
+        byte[] manifest = "Manifest-Version: 1.0\r\nBundle-SymbolicName: com.acme\r\n\r\n"
+                .getBytes(StandardCharsets.UTF_8);
+
+        BundleHeaders stripped = parsed.withoutAttributes();
+        assertNotSame(parsed.getExports(), stripped.getExports());
+        assertSame(stripped, stripped.withoutAttributes());
+        assertSame(stripped.getExports(), parsed.withoutAttributes().getExports());
+
+        BundleHeaders bundle = parsed.withIdentityOf(manifest);
+        assertEquals("com.acme", bundle.getSymbolicName());
+        assertSame(stripped.getExports(), bundle.withoutAttributes().getExports());
+    }
+
+    @Test
+    public void testMalformedHeaderReadAsEmpty() throws Exception {
+        Archive malformed = bundle("malformed.jar", "Export-Package: a.b,c.d;exclude:*Impl\r\n", "1.0");
+        Archive wellFormed = bundle("well-formed.jar", "Export-Package: a.b\r\n", "1.0");
+
+        Map<Archive, ExportIndex> indices = new ExportReader(2, null, null).readAll(asList(malformed, wellFormed));
+        assertTrue(indices.get(malformed).isEmpty());
+        assertEquals(PackageVerdict.EXPORTED, indices.get(wellFormed).verdictOf("a.b"));
+
+        // the cached reads go through the central directory of the archive instead
+        DiskDefinitionCache cache = new DiskDefinitionCache(tmp.newFolder("cache").toPath(), Long.MAX_VALUE);
+        assertTrue(new ExportReader(1, null, cache).read(malformed).isEmpty());
+    }
+
+    @Test
+    public void testDifferentHeadersNotShared() throws Exception {
+        Archive oldBundle = bundle("old.jar", "Export-Package: a.b,c.d\r\n", "1.0");
+        Archive newBundle = bundle("new.jar", "Export-Package: a.b\r\n", "2.0");
+
+        ExportReader reader = new ExportReader(1, null, null);
+
+        ExportIndex oldIndex = reader.read(oldBundle);
+        ExportIndex newIndex = reader.read(newBundle);
+
+        assertNotSame(oldIndex, newIndex);
+        assertEquals(PackageVerdict.EXPORTED, oldIndex.verdictOf("c.d"));
+        assertEquals(PackageVerdict.NOT_EXPORTED, newIndex.verdictOf("c.d"));
+    }
+
+    @Test
+    public void testFragmentsShareExportsOfHost() throws Exception {
+        Archive host = bundle("host.jar", "Bundle-SymbolicName: com.acme.host;singleton:=true\r\n"
+                + "Export-Package: a.b\r\n", "1.0");
+        Archive fragment = bundle("fragment.jar", "Bundle-SymbolicName: com.acme.fragment\r\n"
+                + "Fragment-Host: com.acme.host;bundle-version=\"[1,2)\"\r\nExport-Package: c.d\r\n", "1.0");
+        Archive emptyFragment = bundle("empty-fragment.jar", "Bundle-SymbolicName: com.acme.empty\r\n"
+                + "Fragment-Host: com.acme.host\r\n", "1.0");
+        Archive orphan = bundle("orphan.jar", "Bundle-SymbolicName: com.acme.orphan\r\n"
+                + "Fragment-Host: com.acme.other\r\nExport-Package: e.f\r\n", "1.0");
+
+        Map<Archive, ExportIndex> indices = new ExportReader(2, null, null)
+                .readAll(asList(fragment, orphan, host, emptyFragment));
+
+        ExportIndex hostIndex = indices.get(host);
+        assertEquals(PackageVerdict.EXPORTED, hostIndex.verdictOf("a.b"));
+        assertEquals(PackageVerdict.EXPORTED, hostIndex.verdictOf("c.d"));
+        assertSame(hostIndex, indices.get(fragment));
+        assertSame(hostIndex, indices.get(emptyFragment));
+
+        ExportIndex orphanIndex = indices.get(orphan);
+        assertEquals(PackageVerdict.EXPORTED, orphanIndex.verdictOf("e.f"));
+        assertEquals(PackageVerdict.NOT_EXPORTED, orphanIndex.verdictOf("a.b"));
+    }
+
+    @Test
+    public void testManyFragmentsAttachedToTheirHosts() throws Exception {
+        List<Archive> archives = new ArrayList<>();
+        for (int h = 0; h < 10; ++h) {
+            archives.add(bundle("host" + h + ".jar", "Bundle-SymbolicName: host" + h + "\r\nExport-Package: host"
+                    + h + ".api\r\n", "1.0"));
+            for (int f = 0; f < 100; ++f) {
+                archives.add(bundle("host" + h + "-fragment" + f + ".jar", "Bundle-SymbolicName: host" + h
+                        + ".fragment" + f + "\r\nFragment-Host: host" + h + "\r\nExport-Package: host" + h
+                        + ".fragment" + f + "\r\n", "1.0"));
+            }
+        }
+
+        Map<Archive, ExportIndex> indices = new ExportReader(4, null, null).readAll(archives);
+
+        for (int h = 0; h < 10; ++h) {
+            ExportIndex hostIndex = indices.get(archives.get(h * 101));
+            assertEquals(101, hostIndex.getPackageCount());
+            for (int f = 1; f <= 100; ++f) {
+                assertSame(hostIndex, indices.get(archives.get(h * 101 + f)));
+            }
+        }
+    }
+
+    private Archive bundle(String name, String exportPackage, String version) throws Exception {
+        File jar = tmp.newFile(name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(ManifestReader.MANIFEST_NAME));
+            out.write(("Manifest-Version: 1.0\r\nBundle-Version: " + version + "\r\n" + exportPackage + "\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return new FileArchive(jar);
+    }
+}
@@ -0,0 +1,188 @@
+package org.revapi.osgi;
+
+import static java.util.stream.Collectors.toList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.jboss.dmr.ModelNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.revapi.AnalysisContext;
+import org.revapi.Element;
+import org.revapi.ElementForest;
+import org.revapi.java.test.support.Jar;
+
+public class JavaFilterPushDownTest {
+
+    @Rule
+    public Jar jar = new Jar();
+
+    @Test
+    public void testUnexportedClassesNotAnalyzed() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "exported/ExportedImpl.java",
+                        "UnexportedClass.java")
+                .classPathResources("/test-bundle-filtered/", "META-INF/MANIFEST.MF")
+                .build();
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{}", bundle);
+        ModelNode configuration = JavaFilterPushDown.configurationFor(ctx.getOldApi(), ctx.getNewApi());
+
+        ElementForest forest = ExportPackageFilterTest.analyze(
+                ctx.copyWithConfiguration(configuration.get(0).get("configuration")));
+
+        assertEquals(Arrays.asList("class exported.ExportedClass"), rootNames(forest));
+    }
+
+    @Test
+    public void testPlainArchivesNotFiltered() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Jar.BuildOutput plainJar = jar.from()
+                .classPathSources("/test-plain/", "plain/PlainClass.java")
+                .build();
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{}", bundle, plainJar);
+        ModelNode configuration = JavaFilterPushDown.configurationFor(ctx.getOldApi(), ctx.getNewApi());
+
+        ElementForest forest = ExportPackageFilterTest.analyze(
+                ctx.copyWithConfiguration(configuration.get(0).get("configuration")));
+
+        assertEquals(Arrays.asList("class exported.ExportedClass", "class plain.PlainClass"), rootNames(forest));
+    }
+
+    @Test
+    public void testPackagePatternsApplied() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        Jar.BuildOutput plainJar = jar.from()
+                .classPathSources("/test-plain/", "plain/PlainClass.java")
+                .build();
+
+        String filterConfiguration = "{\"packages\": {\"patterns\": [\"plain\"], \"mode\": \"override\"}}";
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{}", bundle, plainJar);
+        ModelNode configuration = JavaFilterPushDown.configurationFor(ctx.getOldApi(), ctx.getNewApi(),
+                ModelNode.fromJSONString(filterConfiguration));
+
+        ElementForest forest = ExportPackageFilterTest.analyze(
+                ctx.copyWithConfiguration(configuration.get(0).get("configuration")));
+
+        assertEquals(Arrays.asList("class plain.PlainClass"), rootNames(forest));
+
+        // the filter with the same configuration accepts the same classes
+        Map.Entry<ElementForest, ExportPackageFilter> classesAndFilter = ExportPackageFilterTest.prepare(
+                filterConfiguration, bundle, plainJar);
+        ExportPackageFilter filter = classesAndFilter.getValue();
+        assertEquals(rootNames(forest), classesAndFilter.getKey().getRoots().stream().filter(filter::applies)
+                .map(Element::getFullHumanReadableString).sorted().collect(toList()));
+    }
+
+    @Test
+    public void testNothingGeneratedWithoutExports() throws Exception {
+        Jar.BuildOutput plainJar = jar.from()
+                .classPathSources("/test-plain/", "plain/PlainClass.java")
+                .build();
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{}", plainJar);
+        ModelNode configuration = JavaFilterPushDown.configurationFor(ctx.getOldApi(), ctx.getNewApi());
+
+        assertTrue(configuration.asList().isEmpty());
+    }
+
+    @Test
+    public void testMergedWithUserConfiguration() throws Exception {
+        Jar.BuildOutput bundle = jar.from()
+                .classPathSources("/test-bundle/", "exported/ExportedClass.java", "UnexportedClass.java")
+                .classPathResources("/test-bundle/", "META-INF/MANIFEST.MF")
+                .build();
+
+        AnalysisContext ctx = ExportPackageFilterTest.context("{}", bundle);
+
+        ModelNode merged = AnalysisContext.builder()
+                .withOldAPI(ctx.getOldApi())
+                .withNewAPI(ctx.getNewApi())
+                .withConfigurationFromJSON(
+                        "[{\"extension\": \"revapi.java\", \"configuration\": {\"filter\": {\"packages\": "
+                                + "{\"regex\": true, \"exclude\": [\"x\\\\..*\"]}}}}]")
+                .mergeConfiguration(JavaFilterPushDown.configurationFor(ctx.getOldApi(), ctx.getNewApi()))
+                .build()
+                .getConfiguration();
+
+        ModelNode filter = merged.get(0).get("configuration", "filter");
+        assertEquals("x\\..*", filter.get("packages", "exclude").get(0).asString());
+        assertEquals("UnexportedClass", filter.get("classes", "exclude").get(0).asString());
+    }
+
+    @Test
+    public void testRegexMatchesExactlyTheNames() throws Exception {
+        Random random = new Random(42);
+        SortedSet<String> names = new TreeSet<>();
+        for (int i = 0; i < 2_000; ++i) {
+            names.add(randomName(random));
+        }
+
+        Pattern regex = Pattern.compile(JavaFilterPushDown.regexOf(names));
+
+        for (String name : names) {
+            assertTrue(name, regex.matcher(name).matches());
+            assertFalse(name, regex.matcher(name + "x").matches());
+            String prefix = name.substring(0, name.length() - 1);
+            assertEquals(name, names.contains(prefix), regex.matcher(prefix).matches());
+        }
+
+        for (int i = 0; i < 2_000; ++i) {
+            String name = randomName(random);
+            assertEquals(name, names.contains(name), regex.matcher(name).matches());
+        }
+    }
+
+    @Test
+    public void testRegexEscapesSpecialCharacters() throws Exception {
+        SortedSet<String> names = new TreeSet<>(Arrays.asList("a.b$c", "a.b", "\u00e9t\u00e9.X"));
+
+        Pattern regex = Pattern.compile(JavaFilterPushDown.regexOf(names));
+
+        assertTrue(regex.matcher("a.b$c").matches());
+        assertTrue(regex.matcher("a.b").matches());
+        assertTrue(regex.matcher("\u00e9t\u00e9.X").matches());
+        assertFalse(regex.matcher("axb").matches());
+        assertFalse(regex.matcher("a.bc").matches());
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder ret = new StringBuilder();
+        int segments = 1 + random.nextInt(3);
+        for (int i = 0; i < segments; ++i) {
+            if (i > 0) {
+                ret.append('.');
+            }
+            ret.append("abc".charAt(random.nextInt(3)));
+            int length = random.nextInt(3);
+            for (int j = 0; j < length; ++j) {
+                ret.append("abc$".charAt(random.nextInt(4)));
+            }
+        }
+        return ret.toString();
+    }
+
+    private static List<String> rootNames(ElementForest forest) {
+        return forest.getRoots().stream().map(Element::getFullHumanReadableString).sorted().collect(toList());
+    }
+}
@@ -0,0 +1,112 @@
+package org.revapi.osgi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.Archive;
+import org.revapi.simple.FileArchive;
+
+public class ManifestReaderTest {
+
+    private static final byte[] MANIFEST = ("Manifest-Version: 1.0\r\nExport-Package: a.b.c;version=\"1.0\"\r\n\r\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testReadsManifestFromFileUsingCentralDirectory() throws Exception {
+        File jar = tmp.newFile("test.jar");
+        try (OutputStream out = new FileOutputStream(jar)) {
+            writeZip(out, 1000, false);
+        }
+
+        assertArrayEquals(MANIFEST, ManifestReader.read(new FileArchive(jar)));
+    }
+
+    @Test
+    public void testReadsStoredManifest() throws Exception {
+        File jar = tmp.newFile("test.jar");
+        try (OutputStream out = new FileOutputStream(jar)) {
+            writeZip(out, 10, true);
+        }
+
+        assertArrayEquals(MANIFEST, ManifestReader.read(new FileArchive(jar)));
+    }
+
+    @Test
+    public void testReadsManifestFromStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeZip(out, 1000, false);
+
+        assertArrayEquals(MANIFEST, ManifestReader.read(inMemory(out.toByteArray())));
+    }
+
+    @Test
+    public void testNoManifest() throws Exception {
+        File jar = tmp.newFile("test.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry("A.class"));
+            zip.closeEntry();
+        }
+
+        assertNull(ManifestReader.read(new FileArchive(jar)));
+        assertNull(ManifestReader.read(inMemory(Files.readAllBytes(jar.toPath()))));
+    }
+
+    private static Archive inMemory(byte[] data) {
+        return new Archive() {
+            @Override
+            public String getName() {
+                return "in-memory.jar";
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return new ByteArrayInputStream(data);
+            }
+        };
+    }
+
+    /**
+     * Writes the manifest as the last entry so that it wouldn't be found by the {@link java.util.jar.JarInputStream}.
+     */
+    private static void writeZip(OutputStream out, int entryCount, boolean storeManifest) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < entryCount; ++i) {
+                zip.putNextEntry(new ZipEntry("pkg/Class" + i + ".class"));
+                zip.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, (byte) i});
+                zip.closeEntry();
+            }
+
+            ZipEntry manifest = new ZipEntry(ManifestReader.MANIFEST_NAME);
+            if (storeManifest) {
+                CRC32 crc = new CRC32();
+                crc.update(MANIFEST);
+                manifest.setMethod(ZipEntry.STORED);
+                manifest.setSize(MANIFEST.length);
+                manifest.setCompressedSize(MANIFEST.length);
+                manifest.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(manifest);
+            zip.write(MANIFEST);
+            zip.closeEntry();
+        }
+    }
+}
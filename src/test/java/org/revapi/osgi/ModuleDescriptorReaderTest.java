@@ -0,0 +1,228 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.Archive;
+import org.revapi.simple.FileArchive;
+
+public class ModuleDescriptorReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testParsesUnqualifiedExports() throws Exception {
+        assertEquals(singletonList("com.acme.api"), ModuleDescriptorReader.parse(
+                new ByteArrayInputStream(moduleInfo()), ModuleDescriptorReader.Exports.UNQUALIFIED));
+    }
+
+    @Test
+    public void testParsesAllExports() throws Exception {
+        assertEquals(asList("com.acme.api", "com.acme.internal"), ModuleDescriptorReader.parse(
+                new ByteArrayInputStream(moduleInfo()), ModuleDescriptorReader.Exports.ALL));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTruncatedDescriptor() throws Exception {
+        byte[] descriptor = moduleInfo();
+        ModuleDescriptorReader.parse(new ByteArrayInputStream(descriptor, 0, descriptor.length / 2),
+                ModuleDescriptorReader.Exports.ALL);
+    }
+
+    @Test
+    public void testPrefersRootDescriptor() throws Exception {
+        File jar = jar(false, "module-info.class", "META-INF/versions/11/module-info.class");
+
+        assertEquals(singletonList("com.acme.api"),
+                ModuleDescriptorReader.read(new FileArchive(jar), ModuleDescriptorReader.Exports.UNQUALIFIED));
+        assertEquals(singletonList("com.acme.api"),
+                ModuleDescriptorReader.stream(new FileArchive(jar), ModuleDescriptorReader.Exports.UNQUALIFIED));
+    }
+
+    @Test
+    public void testFindsVersionedDescriptor() throws Exception {
+        File jar = jar(false, "META-INF/versions/9/module-info.class", "META-INF/versions/11/module-info.class");
+
+        assertEquals(singletonList("com.acme.api"),
+                ModuleDescriptorReader.read(new FileArchive(jar), ModuleDescriptorReader.Exports.UNQUALIFIED));
+        assertEquals(singletonList("com.acme.api"),
+                ModuleDescriptorReader.stream(new FileArchive(jar), ModuleDescriptorReader.Exports.UNQUALIFIED));
+    }
+
+    @Test
+    public void testNoDescriptor() throws Exception {
+        File jar = jar(false);
+
+        assertNull(ModuleDescriptorReader.read(new FileArchive(jar), ModuleDescriptorReader.Exports.ALL));
+        assertNull(ModuleDescriptorReader.stream(new FileArchive(jar), ModuleDescriptorReader.Exports.ALL));
+    }
+
+    @Test
+    public void testExportReaderUsesDescriptor() throws Exception {
+        Archive archive = new FileArchive(jar(false, "module-info.class"));
+
+        assertTrue(new ExportReader(1, null, null).read(archive).isEmpty());
+
+        ExportIndex unqualified = new ExportReader(1, null, null, FilterMetrics.DISABLED,
+                ModuleDescriptorReader.Exports.UNQUALIFIED).read(archive);
+        assertEquals(PackageVerdict.EXPORTED, unqualified.verdictOf("com.acme.api"));
+        assertEquals(PackageVerdict.NOT_EXPORTED, unqualified.verdictOf("com.acme.internal"));
+
+        ExportIndex all = new ExportReader(1, null, null, FilterMetrics.DISABLED,
+                ModuleDescriptorReader.Exports.ALL).read(archive);
+        assertEquals(PackageVerdict.EXPORTED, all.verdictOf("com.acme.internal"));
+    }
+
+    @Test
+    public void testExportPackageTakesPrecedence() throws Exception {
+        File jar = jar(true, "module-info.class");
+
+        byte[] bytes = Files.readAllBytes(jar.toPath());
+        Archive streamed = new Archive() {
+            @Override
+            public String getName() {
+                return "streamed.jar";
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+
+        ExportReader reader = new ExportReader(1, null, null, FilterMetrics.DISABLED,
+                ModuleDescriptorReader.Exports.ALL);
+        for (Archive archive : new Archive[]{new FileArchive(jar), streamed}) {
+            ExportIndex index = reader.read(archive);
+            assertEquals(PackageVerdict.EXPORTED, index.verdictOf("com.acme.spi"));
+            assertEquals(PackageVerdict.NOT_EXPORTED, index.verdictOf("com.acme.api"));
+        }
+    }
+
+    private File jar(boolean withExportPackage, String... descriptors) throws Exception {
+        File file = tmp.newFile();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            if (withExportPackage) {
+                out.putNextEntry(new ZipEntry(ManifestReader.MANIFEST_NAME));
+                out.write("Manifest-Version: 1.0\r\nExport-Package: com.acme.spi\r\n\r\n"
+                        .getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new ZipEntry("com/acme/api/Api.class"));
+            out.closeEntry();
+
+            for (String descriptor : descriptors) {
+                out.putNextEntry(new ZipEntry(descriptor));
+                out.write(moduleInfo());
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Assembles the class file of:
+     * <pre>
+     * module com.acme {
+     *     exports com.acme.api;
+     *     exports com.acme.internal to com.acme.friend;
+     * }
+     * </pre>
+     * with a few extra constants and attributes that the reader has to skip.
+     */
+    private static byte[] moduleInfo() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(53);
+
+        out.writeShort(15); // constant pool count
+        utf8(out, "module-info");        // 1
+        out.writeByte(7);                // 2: Class module-info
+        out.writeShort(1);
+        utf8(out, "Module");             // 3
+        utf8(out, "com.acme");           // 4
+        out.writeByte(19);               // 5: Module com.acme
+        out.writeShort(4);
+        utf8(out, "com/acme/api");       // 6
+        out.writeByte(20);               // 7: Package com/acme/api
+        out.writeShort(6);
+        out.writeByte(5);                // 8, 9: Long
+        out.writeLong(42);
+        utf8(out, "com/acme/internal");  // 10
+        out.writeByte(20);               // 11: Package com/acme/internal
+        out.writeShort(10);
+        utf8(out, "com.acme.friend");    // 12
+        out.writeByte(19);               // 13: Module com.acme.friend
+        out.writeShort(12);
+        utf8(out, "SourceFile");         // 14
+
+        out.writeShort(0x8000); // ACC_MODULE
+        out.writeShort(2);
+        out.writeShort(0);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(0); // methods
+
+        out.writeShort(2); // attributes
+
+        out.writeShort(14); // SourceFile
+        out.writeInt(2);
+        out.writeShort(1);
+
+        ByteArrayOutputStream module = new ByteArrayOutputStream();
+        DataOutputStream m = new DataOutputStream(module);
+        m.writeShort(5); // module name
+        m.writeShort(0); // flags
+        m.writeShort(0); // version
+        m.writeShort(1); // requires
+        m.writeShort(5);
+        m.writeShort(0);
+        m.writeShort(0);
+        m.writeShort(2); // exports
+        m.writeShort(7);
+        m.writeShort(0);
+        m.writeShort(0);
+        m.writeShort(11);
+        m.writeShort(0);
+        m.writeShort(1);
+        m.writeShort(13);
+        m.writeShort(0); // opens
+        m.writeShort(0); // uses
+        m.writeShort(0); // provides
+
+        out.writeShort(3); // Module
+        out.writeInt(module.size());
+        module.writeTo(out);
+
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+}
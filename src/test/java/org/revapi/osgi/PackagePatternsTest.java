@@ -0,0 +1,136 @@
+package org.revapi.osgi;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PackagePatternsTest {
+
+    @Test
+    public void testTrailingWildcardMatchesPackageItself() {
+        PackagePatterns patterns = compile("com.acme.api.*");
+
+        assertTrue(patterns.selects("com.acme.api"));
+        assertTrue(patterns.selects("com.acme.api.sub"));
+        assertFalse(patterns.selects("com.acme.apix"));
+        assertFalse(patterns.selects("com.acme"));
+        assertFalse(patterns.selects(""));
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        PackagePatterns patterns = compile("!com.acme.*.internal.*", "com.acme.*");
+
+        assertTrue(patterns.selects("com.acme"));
+        assertTrue(patterns.selects("com.acme.api"));
+        assertFalse(patterns.selects("com.acme.api.internal"));
+        assertFalse(patterns.selects("com.acme.api.v2.internal.impl"));
+        assertTrue(patterns.selects("com.acme.api.internals"));
+        assertFalse(patterns.selects("org.acme"));
+
+        PackagePatterns reversed = compile("com.acme.*", "!com.acme.*.internal.*");
+        assertTrue(reversed.selects("com.acme.api.internal"));
+    }
+
+    @Test
+    public void testLiteralsAndInnerWildcards() {
+        PackagePatterns patterns = compile("a.b", "x*z", "!*");
+
+        assertTrue(patterns.selects("a.b"));
+        assertFalse(patterns.selects("a.b.c"));
+        assertTrue(patterns.selects("xz"));
+        assertTrue(patterns.selects("x.y.z"));
+        assertFalse(patterns.selects("x.y.z.w"));
+        assertFalse(patterns.selects("\u00e9"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidPattern() {
+        compile("com..acme");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsLoneNegation() {
+        compile("!");
+    }
+
+    @Test
+    public void testMatchesLikeRegexes() {
+        List<String> instructions = new ArrayList<>();
+        List<Pattern> regexes = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            String glob = i % 3 == 0 ? "org.p" + i + ".*" : i % 3 == 1 ? "org.*.q" + i : "org.p" + i + "*.r";
+            instructions.add(i % 2 == 0 ? "!" + glob : glob);
+            regexes.add(regexOf(glob));
+        }
+        PackagePatterns patterns = PackagePatterns.compile(instructions, PackagePatterns.Mode.AUGMENT);
+
+        String[] names = {"org.p3", "org.p3.x", "org.a.q4", "org.p5.r", "org.p51.r", "org.p6.q7", "org.x.q13",
+                "org.p200.r", "org", "com.p3"};
+        for (String name : names) {
+            boolean expected = false;
+            for (int i = 0; i < regexes.size(); ++i) {
+                if (regexes.get(i).matcher(name).matches()) {
+                    expected = i % 2 != 0;
+                    break;
+                }
+            }
+            assertEquals(name, expected, patterns.selects(name));
+        }
+    }
+
+    @Test
+    public void testModes() {
+        ExportIndex index = ExportIndex.of(asList(
+                new ExportPackageDefinition(singleton("a"), emptyList(), emptyList()),
+                new ExportPackageDefinition(singleton("b"), emptyList(), emptyList())));
+        List<String> instructions = asList("!b", "a", "c");
+
+        PackagePatterns augment = PackagePatterns.compile(instructions, PackagePatterns.Mode.AUGMENT);
+        assertSame(PackageVerdict.EXPORTED, augment.verdictOf(index, "b"));
+        assertSame(PackageVerdict.EXPORTED, augment.verdictOf(index, "c"));
+        assertSame(PackageVerdict.NOT_EXPORTED, augment.verdictOf(index, "d"));
+
+        PackagePatterns override = PackagePatterns.compile(instructions, PackagePatterns.Mode.OVERRIDE);
+        assertSame(PackageVerdict.EXPORTED, override.verdictOf(index, "a"));
+        assertSame(PackageVerdict.NOT_EXPORTED, override.verdictOf(index, "b"));
+        assertSame(PackageVerdict.EXPORTED, override.verdictOf(index, "c"));
+
+        PackagePatterns narrow = PackagePatterns.compile(instructions, PackagePatterns.Mode.NARROW);
+        assertSame(PackageVerdict.EXPORTED, narrow.verdictOf(index, "a"));
+        assertSame(PackageVerdict.NOT_EXPORTED, narrow.verdictOf(index, "b"));
+        assertSame(PackageVerdict.NOT_EXPORTED, narrow.verdictOf(index, "c"));
+
+        for (PackagePatterns patterns : asList(augment, override, narrow)) {
+            assertSame(PackageVerdict.EXPORTED, patterns.verdictOf(ExportIndex.EMPTY, "c"));
+            assertSame(PackageVerdict.NOT_EXPORTED, patterns.verdictOf(ExportIndex.EMPTY, "b"));
+        }
+
+        assertSame(PackageVerdict.NOT_EXPORTED, PackagePatterns.NONE.verdictOf(index, "c"));
+    }
+
+    private static Pattern regexOf(String glob) {
+        return glob.endsWith(".*")
+                ? Pattern.compile(quote(glob.substring(0, glob.length() - 2)) + "(\\..*)?")
+                : Pattern.compile(quote(glob));
+    }
+
+    private static String quote(String glob) {
+        return Pattern.quote(glob).replace("*", "\\E.*\\Q");
+    }
+
+    private static PackagePatterns compile(String... instructions) {
+        return PackagePatterns.compile(asList(instructions), PackagePatterns.Mode.AUGMENT);
+    }
+}
@@ -0,0 +1,73 @@
+package org.revapi.osgi;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.revapi.simple.FileArchive;
+
+public class SharedExportCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testLeastRecentlyUsedEntriesEvicted() {
+        SharedExportCache cache = new SharedExportCache();
+        cache.setMaxEntries(2);
+
+        ArchiveFingerprint a = new ArchiveFingerprint("a.jar", 1, new byte[0]);
+        ArchiveFingerprint b = new ArchiveFingerprint("b.jar", 1, new byte[0]);
+        ArchiveFingerprint c = new ArchiveFingerprint("c.jar", 1, new byte[0]);
+        ExportIndex index = ExportIndex.of(singletonList(
+                new ExportPackageDefinition(singletonList("a"), emptyList(), emptyList())));
+
+        cache.put(a, index);
+        cache.put(b, index);
+        assertSame(index, cache.get(a));
+
+        cache.put(c, index);
+
+        assertEquals(2, cache.size());
+        assertSame(index, cache.get(a));
+        assertNull(cache.get(b));
+        assertSame(index, cache.get(c));
+
+        cache.setMaxEntries(1);
+        assertEquals(1, cache.size());
+        assertSame(index, cache.get(c));
+
+        cache.setMaxEntries(0);
+        cache.put(a, index);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testIndexSharedBetweenReaders() throws Exception {
+        File jar = tmp.newFile("bundle.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Export-Package", "a.b.c");
+        new JarOutputStream(new FileOutputStream(jar), manifest).close();
+
+        SharedExportCache cache = new SharedExportCache();
+        cache.setMaxEntries(10);
+
+        ExportIndex index = new ExportReader(1, cache, null).read(new FileArchive(jar));
+
+        assertEquals(1, cache.size());
+        assertSame(index, new ExportReader(1, cache, null).read(new FileArchive(jar)));
+    }
+}
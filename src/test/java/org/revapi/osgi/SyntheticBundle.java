@@ -0,0 +1,261 @@
+package org.revapi.osgi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.revapi.java.test.support.Jar;
+
+/**
+ * Generates bundles with the given number of packages and classes and an Export-Package header exporting a share of
+ * the packages, optionally with include and exclude class filters. The bundles are built with the {@link Jar} rule of
+ * revapi-java-test-support. Used by both the tests and the benchmarks, which get it from the test jar.
+ *
+ * <p>The packages are named {@code p<i>} and the classes {@code C<j>}, with every fourth class named
+ * {@code C<j>Impl}.
+ */
+final class SyntheticBundle {
+    private int packageCount = 1;
+    private int classesPerPackage = 1;
+    private int exportEvery = 1;
+    private List<String> includes = new ArrayList<>();
+    private List<String> excludes = new ArrayList<>();
+    private boolean withMembers;
+
+    SyntheticBundle packages(int count) {
+        this.packageCount = count;
+        return this;
+    }
+
+    SyntheticBundle classesPerPackage(int count) {
+        this.classesPerPackage = count;
+        return this;
+    }
+
+    /**
+     * Only every n-th package is exported. 0 means that the bundle has no Export-Package header.
+     */
+    SyntheticBundle exportEvery(int n) {
+        this.exportEvery = n;
+        return this;
+    }
+
+    SyntheticBundle includes(String... globs) {
+        this.includes = Arrays.asList(globs);
+        return this;
+    }
+
+    SyntheticBundle excludes(String... globs) {
+        this.excludes = Arrays.asList(globs);
+        return this;
+    }
+
+    /**
+     * Gives each class a method and a nested class, so that the forest has more than just the top-level types.
+     */
+    SyntheticBundle withMembers() {
+        this.withMembers = true;
+        return this;
+    }
+
+    int getTypeCount() {
+        return packageCount * classesPerPackage;
+    }
+
+    /**
+     * Computes the number of the exported top-level classes independently of the code under test.
+     */
+    int getExportedTypeCount() {
+        if (exportEvery == 0) {
+            return getTypeCount();
+        }
+
+        Pattern include = toRegex(includes);
+        Pattern exclude = toRegex(excludes);
+
+        int exportedClasses = 0;
+        for (int c = 0; c < classesPerPackage; ++c) {
+            String name = className(c);
+            if ((includes.isEmpty() || include.matcher(name).matches()) && !exclude.matcher(name).matches()) {
+                ++exportedClasses;
+            }
+        }
+
+        int exportedPackages = (packageCount + exportEvery - 1) / exportEvery;
+        return exportedPackages * exportedClasses;
+    }
+
+    /**
+     * @return the Export-Package header or null if the bundle doesn't have one
+     */
+    String exportPackage() {
+        if (exportEvery == 0) {
+            return null;
+        }
+
+        StringBuilder ret = new StringBuilder();
+        for (int p = 0; p < packageCount; p += exportEvery) {
+            if (ret.length() > 0) {
+                ret.append(',');
+            }
+            ret.append(packageName(p)).append(";version=\"1.0.0\"");
+            appendDirective(ret, "include", includes);
+            appendDirective(ret, "exclude", excludes);
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Writes the sources and the manifest into the work directory and builds the bundle with the {@link Jar} rule.
+     */
+    Jar.BuildOutput build(Jar jar, Path workDir) throws Exception {
+        File root = Files.createDirectories(workDir.resolve("synthetic-bundle")).toFile();
+
+        List<File> sources = new ArrayList<>(getTypeCount());
+        for (int p = 0; p < packageCount; ++p) {
+            Path pkg = Files.createDirectories(root.toPath().resolve(packageName(p)));
+            for (int c = 0; c < classesPerPackage; ++c) {
+                String className = className(c);
+                String body = withMembers
+                        ? "\n    public int method" + c + "(String arg) { return 0; }\n"
+                                + "    public static class Nested {}\n"
+                        : "";
+                Path source = pkg.resolve(className + ".java");
+                Files.write(source, ("package " + packageName(p) + ";\npublic class " + className + " {" + body
+                        + "}\n").getBytes(StandardCharsets.UTF_8));
+                sources.add(source.toFile());
+            }
+        }
+
+        File[] sourceFiles = sources.toArray(new File[0]);
+        String exportPackage = exportPackage();
+        if (exportPackage == null) {
+            return jar.from().fileSources(root, sourceFiles).build();
+        }
+
+        File manifestFile = Files.createDirectories(root.toPath().resolve("META-INF")).resolve("MANIFEST.MF").toFile();
+        try (OutputStream out = Files.newOutputStream(manifestFile.toPath())) {
+            manifest(exportPackage).write(out);
+        }
+
+        return jar.from().fileSources(root, sourceFiles).fileResources(root, manifestFile).build();
+    }
+
+    /**
+     * Builds the bundle outside of JUnit, e.g. in the benchmarks, by running the {@link Jar} rule around the build
+     * like JUnit would. The jar is copied out of the rule's directories before the rule deletes them.
+     *
+     * @return the bundle, named {@code bundle.jar} in the directory
+     */
+    File build(Path dir) throws IOException {
+        Path ret = dir.resolve("bundle.jar");
+        Jar jar = new Jar();
+        Statement build = new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                Files.copy(build(jar, dir).jarFile().toPath(), ret, StandardCopyOption.REPLACE_EXISTING);
+            }
+        };
+
+        try {
+            jar.apply(build, Description.EMPTY).evaluate();
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException("Failed to build the synthetic bundle.", t);
+        }
+        return ret.toFile();
+    }
+
+    /**
+     * Writes a jar with the given number of dummy entries and the manifest as either the first or the last entry.
+     */
+    static File withEntries(Path dir, int entryCount, boolean manifestFirst, String exportPackage) {
+        File jar = dir.resolve("entries-" + entryCount + ".jar").toFile();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            if (manifestFirst) {
+                writeManifest(out, exportPackage);
+            }
+
+            byte[] content = new byte[512];
+            for (int i = 0; i < entryCount; ++i) {
+                out.putNextEntry(new JarEntry("org/example/pkg" + (i % 100) + "/Class" + i + ".class"));
+                content[i % content.length] = (byte) i;
+                out.write(content);
+                out.closeEntry();
+            }
+
+            if (!manifestFirst) {
+                writeManifest(out, exportPackage);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return jar;
+    }
+
+    static String packageName(int index) {
+        return "p" + index;
+    }
+
+    static String className(int index) {
+        return index % 4 == 3 ? "C" + index + "Impl" : "C" + index;
+    }
+
+    static void delete(Path dir) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeManifest(JarOutputStream out, String exportPackage) throws IOException {
+        out.putNextEntry(new JarEntry(ManifestReader.MANIFEST_NAME));
+        manifest(exportPackage).write(out);
+        out.closeEntry();
+    }
+
+    private static Manifest manifest(String exportPackage) {
+        Manifest ret = new Manifest();
+        ret.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (exportPackage != null) {
+            ret.getMainAttributes().putValue("Export-Package", exportPackage);
+        }
+        return ret;
+    }
+
+    private static void appendDirective(StringBuilder header, String name, List<String> globs) {
+        if (!globs.isEmpty()) {
+            header.append(';').append(name).append(":=\"").append(String.join(",", globs)).append('"');
+        }
+    }
+
+    private static Pattern toRegex(List<String> globs) {
+        StringBuilder regex = new StringBuilder();
+        for (String glob : globs) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append(Pattern.quote(glob).replace("*", "\\E.*\\Q"));
+        }
+        return Pattern.compile(regex.length() == 0 ? "(?!)" : regex.toString());
+    }
+}
@@ -0,0 +1,5 @@
+package exported;
+
+public class ExportedImpl {
+
+}
\ No newline at end of file
@@ -0,0 +1,5 @@
+package plain;
+
+public class PlainClass {
+
+}
\ No newline at end of file